@@ -0,0 +1,154 @@
+package jdbcq.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per row rendering path of Main (capture, niceify, transform, flush) in isolation
+ * and end to end through streamResultMem over a SyntheticResultSet.  Everything is measured per
+ * batch of 'rows' rows so the numbers line up with the --buffer size used on the command line.
+ *
+ * Main lives in the unnamed package, which a named package cannot import, so its methods are bound
+ * through static final method handles (constant folded by the JIT, i.e. a plain static call).
+ *
+ * Run with: gradle jmh  (or e.g. gradle jmh -Pjmh="RenderBenchmark.flush -p cols=32")
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    static final Class<?> MAIN;
+    static final MethodHandle OPTIONS, PARSE_ARGS, NICEIFY, TRANSFORM, CAPTURE, FLUSH, STREAM, INT2D, INTARRAY, NEW_ROWS, CLEAR;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.publicLookup();
+            MAIN = Class.forName("Main");
+            Class<?> parser = Class.forName("OptionParser");
+            Class<?> parsed = Class.forName("OptionParser$ParsedArgs");
+            Class<?> rows = Class.forName("RowBuffer");
+            OPTIONS    = l.findStatic(MAIN, "options", MethodType.methodType(parser));
+            PARSE_ARGS = l.findVirtual(parser, "parse_args", MethodType.methodType(parsed, String[].class));
+            NICEIFY    = l.findStatic(MAIN, "niceify", MethodType.methodType(String.class, String.class, int.class, boolean.class));
+            TRANSFORM  = l.findStatic(MAIN, "transform", MethodType.methodType(String.class, String.class));
+            CAPTURE    = l.findStatic(MAIN, "capture", MethodType.methodType(void.class, int[][].class, rows, int.class, int.class, Object.class))
+                          .asType(MethodType.methodType(void.class, int[][].class, Object.class, int.class, int.class, Object.class));
+            FLUSH      = l.findStatic(MAIN, "flush", MethodType.methodType(void.class, int[][].class, rows, int.class, boolean.class, boolean.class, boolean.class, String.class))
+                          .asType(MethodType.methodType(void.class, int[][].class, Object.class, int.class, boolean.class, boolean.class, boolean.class, String.class));
+            STREAM     = l.findStatic(MAIN, "streamResultMem", MethodType.methodType(void.class, ResultSet.class, parsed));
+            INT2D      = l.findStatic(MAIN, "int2DArray", MethodType.methodType(int[][].class, int.class, int.class, int.class));
+            INTARRAY   = l.findStatic(MAIN, "intArray", MethodType.methodType(int[].class, int.class, int.class));
+            NEW_ROWS   = l.findConstructor(rows, MethodType.methodType(void.class, int.class, int.class)).asType(MethodType.methodType(Object.class, int.class, int.class));
+            CLEAR      = l.findVirtual(rows, "clear", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"8", "32"})
+    public int cols;
+
+    @Param({"12", "80"})
+    public int width;
+
+    @Param({"0.0", "0.2"})
+    public double nullRatio;
+
+    @Param({"1000"})
+    public int rows;
+
+    @Param({"100"})
+    public int limit;
+
+    String[][] data;
+    String[][] cells;
+    Object eles;  // RowBuffer
+    int[][] limits;
+    Object parsed;
+    PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        data = SyntheticResultSet.generate(cols, width, nullRatio, 42);
+        parsed = PARSE_ARGS.invoke(OPTIONS.invoke(), new String[]{"-b", String.valueOf(rows), "-l", String.valueOf(limit)});
+        eles = NEW_ROWS.invoke(rows, cols);
+        cells = new String[rows][cols];
+        limits = (int[][])INT2D.invoke(0, 2, cols);
+        limits[1] = (int[])INTARRAY.invoke(limit, cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                Object v = data[r % SyntheticResultSet.POOL][c];
+                CAPTURE.invoke(limits, eles, r, c, v);
+                cells[r][c] = v == null ? "" : (String)v;
+            }
+        }
+
+        // rendering writes to System.out; discard it so the terminal/pipe is not what gets measured
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void niceify(Blackhole bh) throws Throwable {
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                bh.consume((String)NICEIFY.invokeExact(cells[r][c], limit, false));
+    }
+
+    @Benchmark
+    public void transform(Blackhole bh) throws Throwable {
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                bh.consume((String)TRANSFORM.invokeExact(data[r % SyntheticResultSet.POOL][c]));
+    }
+
+    @Benchmark
+    public Object capture() throws Throwable {
+        CLEAR.invokeExact(eles);
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                CAPTURE.invokeExact(limits, eles, r, c, (Object)data[r % SyntheticResultSet.POOL][c]);
+        return eles;
+    }
+
+    @Benchmark
+    public void flush() throws Throwable {
+        FLUSH.invokeExact(limits, eles, rows, true, true, false, "\t");
+    }
+
+    @Benchmark
+    public void streamResultMem() throws Throwable {
+        STREAM.invoke(SyntheticResultSet.create(data, rows), parsed);
+    }
+}
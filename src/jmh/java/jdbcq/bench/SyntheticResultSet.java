@@ -0,0 +1,90 @@
+package jdbcq.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * In-memory forward only ResultSet over pre-generated string cells, so the client side rendering
+ * cost can be measured without any driver or network underneath.  Only the calls jdbcq makes on
+ * a query result are answered; everything else throws SQLFeatureNotSupportedException.
+ *
+ * The rows are generated once (seeded, so runs are repeatable) and cycled through when more rows
+ * are requested than were generated.
+ */
+public class SyntheticResultSet implements InvocationHandler {
+    static final int POOL = 1024;
+
+    final String[][] data;
+    final int cols;
+    final int rows;
+    int row = -1;
+    boolean wasNull = false;
+
+    SyntheticResultSet(String[][] data, int rows) {
+        this.data = data;
+        this.cols = data[0].length;
+        this.rows = rows;
+    }
+
+    /**
+     * Generates a pool of rows with cells of 1..width characters; roughly one cell in ten contains a
+     * tab or newline (exercising the whitespace scrub) and nullRatio of the cells are SQL NULL.
+     */
+    public static String[][] generate(int cols, int width, double nullRatio, long seed) {
+        Random r = new Random(seed);
+        String[][] data = new String[POOL][cols];
+        char[] buf = new char[width];
+        for (int i = 0; i < POOL; i++) {
+            for (int c = 0; c < cols; c++) {
+                if (r.nextDouble() < nullRatio) continue;
+                int len = 1 + r.nextInt(width);
+                for (int k = 0; k < len; k++)
+                    buf[k] = (char)('a' + r.nextInt(26));
+                if (len > 2 && r.nextInt(10) == 0)
+                    buf[r.nextInt(len)] = r.nextBoolean() ? '\t' : '\n';
+                data[i][c] = new String(buf, 0, len);
+            }
+        }
+        return data;
+    }
+
+    public static ResultSet create(String[][] data, int rows) {
+        return (ResultSet)Proxy.newProxyInstance(SyntheticResultSet.class.getClassLoader(),
+                new Class[]{ResultSet.class}, new SyntheticResultSet(data, rows));
+    }
+
+    ResultSetMetaData metaData() {
+        return (ResultSetMetaData)Proxy.newProxyInstance(SyntheticResultSet.class.getClassLoader(),
+                new Class[]{ResultSetMetaData.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                String n = m.getName();
+                if (n.equals("getColumnCount"))     return cols;
+                if (n.equals("getColumnName") || n.equals("getColumnLabel")) return "col" + args[0];
+                if (n.equals("getColumnType"))      return Types.VARCHAR;
+                if (n.equals("getColumnTypeName"))  return "VARCHAR";
+                throw new SQLFeatureNotSupportedException(n);
+            }
+        });
+    }
+
+    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+        String n = m.getName();
+        if (n.equals("getString") || n.equals("getObject")) {
+            String s = data[row % POOL][(Integer)args[0] - 1];
+            wasNull = s == null;
+            return s;
+        }
+        if (n.equals("next"))         return ++row < rows;
+        if (n.equals("wasNull"))      return wasNull;
+        if (n.equals("getMetaData"))  return metaData();
+        if (n.equals("close"))        return null;
+        if (n.equals("isClosed"))     return false;
+        throw new SQLFeatureNotSupportedException(n);
+    }
+}
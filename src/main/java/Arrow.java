@@ -0,0 +1,400 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Arrow IPC file output (--format arrow).  Rows are read with TypedColumns into typed column buffers of
+ * --buffer rows and each full buffer is written as one record batch; the file ends with the footer
+ * that indexes the batches, so it can be memory mapped by Arrow readers (pyarrow.ipc.open_file, ...).
+ *
+ *   integers        -> Int64 (BIGINT) / Int32       DECIMAL, NUMERIC -> Decimal128(p,s) (Utf8 over 38 digits)
+ *   floating point  -> Float64                       DATE -> Date32, TIME -> Time32(ms)
+ *   boolean         -> Bool                          TIMESTAMP -> Timestamp(us), local wall clock
+ *   binary, blobs   -> Binary                        everything else -> Utf8
+ *
+ * The metadata flatbuffers are written by the small builder below rather than pulling in the Arrow and
+ * flatbuffers libraries.  Dictionaries and body compression are not used.
+ */
+public class Arrow {
+    static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+    static final int V5 = 4;  // MetadataVersion
+    static final int SCHEMA = 1, RECORD_BATCH = 3;  // MessageHeader
+    static final int T_INT = 2, T_FLOAT = 3, T_BINARY = 4, T_UTF8 = 5, T_BOOL = 6, T_DECIMAL = 7, T_DATE = 8, T_TIME = 9, T_TIMESTAMP = 10;  // Type
+
+    // ---- minimal flatbuffer builder; objects are laid out parent first so every uoffset points forward
+
+    static class Fb {
+        byte[] b = new byte[512];
+        int pos = 0;
+
+        void ensure(int n) { if (pos + n > b.length) b = java.util.Arrays.copyOf(b, Math.max(b.length*2, pos + n)); }
+        void align(int a) { ensure(a); while (pos % a != 0) b[pos++] = 0; }
+        void put(int at, long v, int size) { for (int i = 0; i < size; i++) b[at+i] = (byte)(v >>> (8*i)); }
+        int add(long v, int size) { ensure(size); put(pos, v, size); pos += size; return pos - size; }
+
+        // serialize the tree below root; returns the buffer padded to a multiple of 8
+        byte[] finish(Node root) {
+            ArrayDeque<Object[]> pending = new ArrayDeque<Object[]>();
+            pending.add(new Object[]{add(0, 4), root});
+            while (!pending.isEmpty()) {
+                Object[] p = pending.poll();
+                int at = (Integer) p[0];
+                int ref = ((Node) p[1]).write(this, pending);
+                put(at, ref - at, 4);
+            }
+            align(8);
+            return java.util.Arrays.copyOf(b, pos);
+        }
+    }
+
+    static abstract class Node {
+        // write the object, queueing its children; returns the position uoffsets to it point at
+        abstract int write(Fb fb, ArrayDeque<Object[]> pending);
+    }
+
+    static class Table extends Node {
+        List<long[]> scalars = new ArrayList<long[]>();   // {id, size, value}
+        List<Object[]> refs = new ArrayList<Object[]>();  // {id, node}
+
+        Table scalar(int id, int size, long v) { scalars.add(new long[]{id, size, v}); return this; }
+        Table ref(int id, Node n) { refs.add(new Object[]{id, n}); return this; }
+
+        int write(Fb fb, ArrayDeque<Object[]> pending) {
+            int n = 0;
+            for (long[] s : scalars) n = Math.max(n, (int) s[0] + 1);
+            for (Object[] r : refs) n = Math.max(n, (Integer) r[0] + 1);
+            fb.align(2);
+            int vt = fb.pos;
+            for (int i = 0; i < 2 + n; i++) fb.add(0, 2);
+            fb.align(4);
+            int t = fb.add(0, 4);
+            fb.put(t, t - vt, 4);  // soffset: the vtable is before the table
+            for (long[] s : scalars) {
+                fb.align((int) s[1]);
+                fb.put(vt + 4 + 2*(int) s[0], fb.add(s[2], (int) s[1]) - t, 2);
+            }
+            for (Object[] r : refs) {
+                fb.align(4);
+                int at = fb.add(0, 4);
+                fb.put(vt + 4 + 2*(Integer) r[0], at - t, 2);
+                pending.add(new Object[]{at, r[1]});
+            }
+            fb.put(vt, 4 + 2*n, 2);
+            fb.put(vt + 2, fb.pos - t, 2);
+            return t;
+        }
+    }
+
+    static class Str extends Node {
+        byte[] s;
+        Str(String s) { this.s = s.getBytes(java.nio.charset.Charset.forName("UTF-8")); }
+        int write(Fb fb, ArrayDeque<Object[]> pending) {
+            fb.align(4);
+            int at = fb.add(s.length, 4);
+            fb.ensure(s.length + 1);
+            System.arraycopy(s, 0, fb.b, fb.pos, s.length);
+            fb.pos += s.length;
+            fb.add(0, 1);
+            return at;
+        }
+    }
+
+    static class Vec extends Node {
+        List<Node> items;
+        Vec(List<Node> items) { this.items = items; }
+        int write(Fb fb, ArrayDeque<Object[]> pending) {
+            fb.align(4);
+            int at = fb.add(items.size(), 4);
+            for (Node n : items) pending.add(new Object[]{fb.add(0, 4), n});
+            return at;
+        }
+    }
+
+    // vector of structs made of longs (and ints padded to longs): Block, FieldNode, Buffer
+    static class Structs extends Node {
+        List<long[]> items = new ArrayList<long[]>();
+        int[] sizes;
+        Structs(int... sizes) { this.sizes = sizes; }
+        Structs add(long... v) { items.add(v); return this; }
+        int write(Fb fb, ArrayDeque<Object[]> pending) {
+            fb.ensure(8);
+            while ((fb.pos + 4) % 8 != 0) fb.b[fb.pos++] = 0;  // elements 8 aligned after the length
+            int at = fb.add(items.size(), 4);
+            for (long[] v : items)
+                for (int i = 0; i < v.length; i++) fb.add(v[i], sizes[i]);
+            return at;
+        }
+    }
+
+    // ---- columns
+
+    static class Column {
+        String name;
+        int kind;       // TypedColumns kind
+        int type;       // Arrow Type union id
+        int precision, scale;
+        boolean nullable;
+
+        Node typeTable() {
+            switch (type) {
+                case T_INT:       return new Table().scalar(0, 4, kind == TypedColumns.LONG ? 64 : 32).scalar(1, 1, 1);
+                case T_FLOAT:     return new Table().scalar(0, 2, 2);  // DOUBLE
+                case T_DECIMAL:   return new Table().scalar(0, 4, precision).scalar(1, 4, scale).scalar(2, 4, 128);
+                case T_DATE:      return new Table().scalar(0, 2, 0);  // DAY
+                case T_TIME:      return new Table().scalar(0, 2, 1).scalar(1, 4, 32);  // MILLISECOND, 32 bit
+                case T_TIMESTAMP: return new Table().scalar(0, 2, 2);  // MICROSECOND, no time zone
+                default:          return new Table();  // Utf8, Binary, Bool
+            }
+        }
+
+        Node field() {
+            return new Table().ref(0, new Str(name)).scalar(1, 1, nullable ? 1 : 0).scalar(2, 1, type)
+                              .ref(3, typeTable()).ref(5, new Vec(new ArrayList<Node>()));
+        }
+    }
+
+    static Column column(ResultSetMetaData md, int c) throws SQLException {
+        Column col = new Column();
+        col.name = md.getColumnName(c);
+        col.kind = TypedColumns.kindOf(md.getColumnType(c));
+        col.nullable = md.isNullable(c) != ResultSetMetaData.columnNoNulls;
+        switch (col.kind) {
+            case TypedColumns.LONG:
+            case TypedColumns.INT:       col.type = T_INT; break;
+            case TypedColumns.DOUBLE:    col.type = T_FLOAT; break;
+            case TypedColumns.BOOLEAN:   col.type = T_BOOL; break;
+            case TypedColumns.DATE:      col.type = T_DATE; break;
+            case TypedColumns.TIME:      col.type = T_TIME; break;
+            case TypedColumns.TIMESTAMP: col.type = T_TIMESTAMP; break;
+            case TypedColumns.BYTES:
+            case TypedColumns.BLOB:      col.type = T_BINARY; break;
+            case TypedColumns.DECIMAL:
+                col.precision = md.getPrecision(c);
+                col.scale = Math.max(0, md.getScale(c));
+                col.type = col.precision > 0 && col.precision <= 38 && col.scale <= col.precision ? T_DECIMAL : T_UTF8;
+                break;
+            default:                     col.type = T_UTF8;
+        }
+        return col;
+    }
+
+    // ---- output
+
+    static class Out {
+        OutputStream os;
+        long pos = 0;
+        Out(OutputStream os) { this.os = os; }
+        void write(byte[] b, int off, int len) throws IOException { os.write(b, off, len); pos += len; }
+        void write(byte[] b) throws IOException { write(b, 0, b.length); }
+        void writeInt(int v) throws IOException { write(new byte[]{(byte) v, (byte)(v >>> 8), (byte)(v >>> 16), (byte)(v >>> 24)}); }
+    }
+
+    // encapsulated message: continuation marker, metadata length, metadata, body; returns {offset, metadata length}
+    static long[] message(Out out, Table header, int headerType, byte[] body, int bodyLen) throws IOException {
+        Table m = new Table().scalar(0, 2, V5).scalar(1, 1, headerType).ref(2, header).scalar(3, 8, bodyLen);
+        byte[] meta = new Fb().finish(m);
+        long at = out.pos;
+        out.writeInt(-1);
+        out.writeInt(meta.length);
+        out.write(meta);
+        if (body != null) out.write(body, 0, bodyLen);
+        return new long[]{at, 8 + meta.length};
+    }
+
+    static Table schema(Column[] cols) {
+        List<Node> fields = new ArrayList<Node>();
+        for (Column c : cols) fields.add(c.field());
+        return new Table().scalar(0, 2, 0).ref(1, new Vec(fields));  // little endian
+    }
+
+    // record batch body buffers, each padded to 8 bytes
+    static class Body {
+        byte[] b = new byte[64*1024];
+        int pos = 0;
+        Structs buffers = new Structs(8, 8);
+
+        void ensure(int n) { if (pos + n > b.length) b = java.util.Arrays.copyOf(b, Math.max(b.length*2, pos + n)); }
+        int start() { return pos; }
+        void end(int start) {
+            buffers.add(start, pos - start);
+            ensure(8);
+            while (pos % 8 != 0) b[pos++] = 0;
+        }
+        void le(long v, int size) { ensure(size); for (int i = 0; i < size; i++) b[pos++] = (byte)(v >>> (8*i)); }
+        void bytes(byte[] v) { ensure(v.length); System.arraycopy(v, 0, b, pos, v.length); pos += v.length; }
+    }
+
+    static long localMillis(java.util.Date d, TimeZone tz) { return d.getTime() + tz.getOffset(d.getTime()); }
+
+    static long floorDiv(long a, long b) { return a >= 0 ? a / b : -((-a + b - 1) / b); }
+
+    static void decimal(Body body, BigDecimal v, int scale) {
+        byte[] be = v.setScale(scale, RoundingMode.HALF_UP).unscaledValue().toByteArray();  // big endian two's complement
+        body.ensure(16);
+        for (int i = 0; i < 16; i++)
+            body.b[body.pos++] = i < be.length ? be[be.length-1-i] : (byte)(be[0] < 0 ? -1 : 0);
+    }
+
+    static long[] batch(Out out, Column[] cols, TypedColumns typed, int from, int to) throws IOException {
+        int n = to - from;
+        Body body = new Body();
+        Structs nodes = new Structs(8, 8);
+        TimeZone tz = TimeZone.getDefault();
+        for (int i = 0; i < cols.length; i++) {
+            Column c = cols[i];
+            boolean[] nulls = typed.nulls[i];
+            int nullCount = 0;
+            for (int r = from; r < to; r++) if (nulls[r]) nullCount++;
+            nodes.add(n, nullCount);
+
+            // validity bitmap (left out when there are no nulls)
+            int s = body.start();
+            if (nullCount > 0) {
+                byte[] bits = new byte[(n + 7) / 8];
+                for (int r = 0; r < n; r++) if (!nulls[from+r]) bits[r >> 3] |= 1 << (r & 7);
+                body.bytes(bits);
+            }
+            body.end(s);
+
+            s = body.start();
+            switch (c.type) {
+                case T_INT:
+                    for (int r = from; r < to; r++) {
+                        if (c.kind == TypedColumns.LONG) body.le(typed.longs[i][r], 8);
+                        else body.le(typed.ints[i][r], 4);
+                    }
+                    body.end(s);
+                    break;
+                case T_FLOAT:
+                    for (int r = from; r < to; r++) body.le(Double.doubleToRawLongBits(typed.doubles[i][r]), 8);
+                    body.end(s);
+                    break;
+                case T_BOOL: {
+                    byte[] bits = new byte[(n + 7) / 8];
+                    for (int r = 0; r < n; r++) if (typed.bools[i][from+r]) bits[r >> 3] |= 1 << (r & 7);
+                    body.bytes(bits);
+                    body.end(s);
+                    break;
+                }
+                case T_DECIMAL:
+                    for (int r = from; r < to; r++) {
+                        if (nulls[r]) { body.le(0, 8); body.le(0, 8); }
+                        else decimal(body, (BigDecimal) typed.objects[i][r], c.scale);
+                    }
+                    body.end(s);
+                    break;
+                case T_DATE:
+                    for (int r = from; r < to; r++)
+                        body.le(nulls[r] ? 0 : floorDiv(localMillis((java.util.Date) typed.objects[i][r], tz), 86400000L), 4);
+                    body.end(s);
+                    break;
+                case T_TIME:
+                    for (int r = from; r < to; r++) {
+                        long ms = nulls[r] ? 0 : localMillis((java.util.Date) typed.objects[i][r], tz) % 86400000L;
+                        body.le(ms < 0 ? ms + 86400000L : ms, 4);
+                    }
+                    body.end(s);
+                    break;
+                case T_TIMESTAMP:
+                    for (int r = from; r < to; r++) {
+                        java.sql.Timestamp t = (java.sql.Timestamp) typed.objects[i][r];
+                        body.le(nulls[r] ? 0 : floorDiv(localMillis(t, tz), 1000L) * 1000000L + t.getNanos() / 1000, 8);
+                    }
+                    body.end(s);
+                    break;
+                default: {
+                    // Utf8 / Binary: int32 offsets then the data
+                    byte[][] vals = new byte[n][];
+                    int off = 0;
+                    for (int r = 0; r < n; r++) {
+                        Object v = nulls[from+r] ? null : typed.objects[i][from+r];
+                        vals[r] = v == null ? new byte[0] : v instanceof byte[] ? (byte[]) v
+                                : v.toString().getBytes(java.nio.charset.Charset.forName("UTF-8"));
+                    }
+                    for (int r = 0; r < n; r++) { body.le(off, 4); off += vals[r].length; }
+                    body.le(off, 4);
+                    body.end(s);
+                    s = body.start();
+                    for (byte[] v : vals) body.bytes(v);
+                    body.end(s);
+                }
+            }
+        }
+        Table rb = new Table().scalar(0, 8, n).ref(1, nodes).ref(2, body.buffers);
+        long[] m = message(out, rb, RECORD_BATCH, body.b, body.pos);
+        return new long[]{m[0], m[1], body.pos};
+    }
+
+    public static void stream(ResultSet rs, OptionParser.ParsedArgs parsed) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        int[] col = Main.columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-" + md.getColumnCount());
+        int nAtAtime = Integer.parseInt(parsed.val("buffer"));
+        Column[] cols = new Column[col.length];
+        for (int i = 0; i < col.length; i++) cols[i] = column(md, col[i]);
+        TypedColumns typed = new TypedColumns(md, col, nAtAtime);
+        typed.blobBytes = true;
+
+        String output = parsed.val("output");
+        Compressor comp = null;
+        long total = 0, fetch = 0, ts;
+        long start = System.nanoTime();
+        OutputStream file = null;
+        try {
+            OutputStream os = file = output != null ? new FileOutputStream(output) : Formats.stdout();
+            if (parsed.has("compress")) os = comp = new Compressor(parsed.val("compress"), os);
+            Out out = new Out(new BufferedOutputStream(os, 64*1024));
+            out.write(MAGIC);
+            out.write(new byte[2]);
+            message(out, schema(cols), SCHEMA, null, 0);
+            Structs blocks = new Structs(8, 4, 4, 8);
+            int row = 0;
+            while (true) {
+                ts = System.nanoTime();
+                boolean more = rs.next();
+                if (more) typed.read(rs, row);
+                fetch += System.nanoTime() - ts;
+                if (more) {
+                    if (total++ == 0) Main.timing.firstRow = System.nanoTime()-Main.timing.start;
+                    row++;
+                }
+                if (row > 0 && (row >= nAtAtime || !more)) {
+                    long[] b = batch(out, cols, typed, 0, row);
+                    blocks.add(b[0], b[1], 0, b[2]);
+                    row = 0;
+                }
+                if (!more) break;
+            }
+            out.writeInt(-1);
+            out.writeInt(0);  // end of stream
+            byte[] footer = new Fb().finish(new Table().scalar(0, 2, V5).ref(1, schema(cols)).ref(2, new Structs(8, 4, 4, 8)).ref(3, blocks));
+            out.write(footer);
+            out.writeInt(footer.length);
+            out.write(MAGIC);
+            out.os.close();
+        } catch (IOException e) {
+            throw new SQLException("writing arrow"+(output != null ? " to "+output : "")+" failed - "+e.getMessage(), e);
+        } finally {
+            // as in Formats.stream: only still open when fetching or writing failed
+            if (comp != null) { try { comp.close(); } catch(Exception e) {} }
+            if (file != null) { try { file.close(); } catch(Exception e) {} }
+        }
+        Main.timing.rows += total;
+        Main.timing.fetch += fetch;
+        Main.timing.render += System.nanoTime() - start - fetch;
+        if (parsed.is("timed")) {
+            String report = typed.report() + (comp != null ? "\n" + comp.report() : "");
+            if (output != null) Main.out(report);
+            else System.err.println(report);  // stdout carries the file
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Batched prepared inserts over several writer connections, behind the generate and load commands.
+ * Each writer thread binds the rows of its own Rows source to the insert, sends them with executeBatch
+ * every --batch-size rows and commits every --commit-every rows; on an error the writer's uncommitted
+ * rows are rolled back.  Autocommit is switched off for the run and restored afterwards.
+ */
+public class BatchInsert {
+
+    // the rows of one writer, used on its thread only
+    interface Rows {
+        void open() throws Exception;
+        boolean next(PreparedStatement ps) throws Exception;  // bind the next row; false when there is none left
+        void close();
+    }
+
+    static class Writer extends Thread {
+        Connection conn;
+        String sql;
+        Rows source;
+        int batch, commitEvery;
+        Histogram hist = new Histogram();
+        long rows = 0, commits = 0;
+        Exception error = null;
+
+        Writer(String name, Connection conn, String sql, Rows source, int batch, int commitEvery) {
+            super(name);
+            this.conn = conn; this.sql = sql; this.source = source; this.batch = batch; this.commitEvery = commitEvery;
+        }
+
+        void execute(PreparedStatement ps, int pending) throws SQLException {
+            long ts = System.nanoTime();
+            ps.executeBatch();
+            hist.record(System.nanoTime() - ts);
+            rows += pending;
+        }
+
+        public void run() {
+            boolean auto = true;
+            try {
+                auto = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                source.open();
+                PreparedStatement ps = conn.prepareStatement(sql);
+                try {
+                    int pending = 0;
+                    long uncommitted = 0;
+                    while (source.next(ps)) {
+                        ps.addBatch();
+                        uncommitted++;
+                        if (++pending >= batch) {
+                            execute(ps, pending);
+                            pending = 0;
+                        }
+                        if (uncommitted >= commitEvery) {
+                            if (pending > 0) { execute(ps, pending); pending = 0; }
+                            conn.commit();
+                            commits++;
+                            uncommitted = 0;
+                        }
+                    }
+                    if (pending > 0) execute(ps, pending);
+                    conn.commit();
+                    commits++;
+                } finally {
+                    try { ps.close(); } catch(Exception e) {}
+                }
+            } catch (Exception e) {
+                error = e;
+                try { conn.rollback(); } catch(Exception e2) {}
+            } finally {
+                source.close();
+                try { conn.setAutoCommit(auto); } catch(Exception e) {}
+            }
+        }
+    }
+
+    int batch;
+    long rows = 0, commits = 0;
+    double secs;
+    Histogram hist = new Histogram();
+    Exception error = null;
+
+    /**
+     * Insert the rows of each source on a writer of its own: the first on 'first', the others on new
+     * connections closed afterwards.  Failed writers are reported; finish() reports the run.
+     */
+    public static BatchInsert run(Connection first, String name, String sql, Rows[] sources, OptionParser.ParsedArgs parsed) throws Exception {
+        BatchInsert b = new BatchInsert();
+        b.batch = Math.max(1, parsed.valInt("batch-size"));
+        int commitEvery = Math.max(1, parsed.valInt("commit-every"));
+        Writer[] w = new Writer[sources.length];
+        long ts = System.nanoTime();
+        try {
+            for (int i = 0; i < w.length; i++)
+                w[i] = new Writer("jdbcq-"+name+"-"+i, i == 0 ? first : Main.getConn(), sql, sources[i], b.batch, commitEvery);
+            for (Writer t : w) t.start();
+            for (Writer t : w) t.join();
+        } finally {
+            for (int i = 1; i < w.length; i++)
+                if (w[i] != null) { try { w[i].conn.close(); } catch(Exception e) {} }
+        }
+        b.secs = (System.nanoTime() - ts) / 1e9;
+        for (Writer t : w) {
+            if (t == null) continue;
+            b.rows += t.rows;
+            b.commits += t.commits;
+            b.hist.add(t.hist);
+            if (t.error != null) {
+                b.error = t.error;
+                Main.out(t.getName()+" failed - "+t.error.toString());
+            }
+        }
+        return b;
+    }
+
+    // print the summary line of the caller with the batching appended, -t latencies, and rethrow a writer's error
+    public void finish(String summary, OptionParser.ParsedArgs parsed) throws SQLException {
+        Main.out(String.format("%s (batch %d, %d commits)", summary, batch, commits));
+        if (parsed.is("timed")) Main.out("executeBatch " + hist.summary());
+        if (error instanceof SQLException) throw (SQLException) error;
+        if (error != null) throw new SQLException(error);
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Thin client of the jdbcq daemon (see Daemon for the protocol): forwards its arguments and stdin and
+ * writes back what the invocation prints, exiting with its exit code.  It only uses java.io and java.net
+ * so that it starts fast; 'Client --stop' stops the daemon.
+ *
+ *   $ java -cp jdbcq-all.jar Client -s emp -q "select count(*) from titles"
+ */
+public class Client {
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = new File(System.getProperty("user.home"), ".jdbcq.daemon");
+        String[] where;
+        try {
+            BufferedReader r = new BufferedReader(new FileReader(f));
+            where = r.readLine().trim().split(" ");
+            r.close();
+        } catch (Exception e) {
+            System.err.println("no jdbcq daemon running (start one with jdbcq --daemon 0); cannot read "+f);
+            System.exit(4);
+            return;
+        }
+        Socket s;
+        try {
+            s = new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(where[0]));
+        } catch (IOException e) {
+            System.err.println("cannot reach the jdbcq daemon on port "+where[0]+" - "+e.getMessage());
+            System.exit(4);
+            return;
+        }
+        s.setTcpNoDelay(true);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        writeString(out, where[1]);
+        if (args.length == 1 && args[0].equals("--stop")) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(args.length);
+            for (String a : args) writeString(out, a);
+        }
+        out.flush();
+
+        // stdin goes over on its own thread while the output comes back
+        Thread in = new Thread("jdbcq-client-stdin") {
+            public void run() {
+                byte[] b = new byte[64*1024];
+                try {
+                    int n;
+                    while ((n = System.in.read(b)) > 0) {
+                        synchronized (out) {
+                            out.writeInt(n);
+                            out.write(b, 0, n);
+                            out.flush();
+                        }
+                    }
+                    synchronized (out) {
+                        out.writeInt(0);
+                        out.flush();
+                    }
+                } catch (IOException e) {}  // the invocation is over
+            }
+        };
+        in.setDaemon(true);
+        in.start();
+
+        DataInputStream din = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64*1024));
+        byte[] b = new byte[64*1024];
+        try {
+            while (true) {
+                int channel = din.readByte();
+                int n = din.readInt();
+                if (channel == 0) {
+                    System.out.flush();
+                    System.exit(n);
+                }
+                OutputStream o = channel == 2 ? System.err : System.out;
+                while (n > 0) {
+                    int got = din.read(b, 0, Math.min(n, b.length));
+                    if (got < 0) throw new EOFException();
+                    o.write(b, 0, got);
+                    n -= got;
+                }
+                if (din.available() == 0) o.flush();
+            }
+        } catch (EOFException e) {
+            System.out.flush();
+            System.err.println("the jdbcq daemon closed the connection");
+            System.exit(3);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * Runs the same workload against several jdbcq.conf sources (e.g. one database reached through two
+ * driver versions) and prints a side by side table of connect/execute/fetch times and rows/s.
+ * Each iteration uses a fresh connection so the connect time is part of what gets compared.
+ */
+public class Compare {
+
+    static class Result {
+        String source;
+        String driver = "";
+        Stats connect = new Stats();
+        Stats execute = new Stats();
+        Stats fetch = new Stats();
+        Stats rowsPerSec = new Stats();
+        long rows = 0;
+    }
+
+    static void iteration(String source, String sql, OptionParser.ParsedArgs parsed, Result r, boolean measure) throws Exception {
+        long t0 = System.nanoTime();
+        Connection conn = Main.getConn(source);
+        Statement stmt = null;
+        boolean ok = false;
+        try {
+            long t1 = System.nanoTime();
+            if (r.driver.length() == 0) r.driver = Main.driverInfo(conn.getMetaData());
+            stmt = Main.statement(conn, parsed);
+            long t2 = System.nanoTime();
+            boolean isRS = stmt.execute(sql);
+            long t3 = System.nanoTime();
+            long rows = 0;
+            while (isRS || stmt.getUpdateCount() > -1) {
+                if (isRS) rows += Main.drain(stmt.getResultSet());
+                isRS = stmt.getMoreResults();
+            }
+            long t4 = System.nanoTime();
+            if (measure) {
+                r.connect.add((t1 - t0) / 1e6);
+                r.execute.add((t3 - t2) / 1e6);
+                r.fetch.add((t4 - t3) / 1e6);
+                r.rowsPerSec.add(rows / ((t4 - t2) / 1e9));
+                r.rows = rows;
+            }
+            ok = true;
+        } finally {
+            if (stmt != null) { try { stmt.close(); } catch(Exception e) {} }
+            try { Main.streamDone(conn, ok); } catch(Exception e) {}
+            try { conn.close(); } catch(Exception e) {}
+        }
+    }
+
+    public static void run(String sql, OptionParser.ParsedArgs parsed) throws Exception {
+        String[] sources = parsed.val("compare").split(",");
+        int warmup = parsed.valInt("warmup");
+        int iterations = parsed.has("iterations") ? parsed.valInt("iterations") : 10;
+        Result[] results = new Result[sources.length];
+
+        for (int s = 0; s < sources.length; s++) {
+            Result r = results[s] = new Result();
+            r.source = sources[s];
+            if (parsed.is("verbose")) Main.out("comparing source "+r.source+"; "+warmup+" warmup and "+iterations+" measured iterations");
+            for (int i = 0; i < warmup; i++)
+                iteration(r.source, sql, parsed, r, false);
+            for (int i = 0; i < iterations; i++)
+                iteration(r.source, sql, parsed, r, true);
+        }
+
+        // lay the results out with the regular table renderer
+        String[] titles = {"source", "driver", "rows", "connect ms", "execute ms", "fetch ms", "rows/s"};
+        int cols = titles.length;
+        RowBuffer eles = new RowBuffer(sources.length+1, cols);
+        int[][] limits = Main.int2DArray(0, 2, cols);
+        limits[1] = Main.intArray(Integer.parseInt(parsed.val("limit")), cols);
+        for (int i = 0; i < cols; i++)
+            Main.capture(limits, eles, 0, i, titles[i]);
+        for (int s = 0; s < results.length; s++) {
+            Result r = results[s];
+            Main.capture(limits, eles, s+1, 0, r.source);
+            Main.capture(limits, eles, s+1, 1, r.driver);
+            Main.capture(limits, eles, s+1, 2, r.rows);
+            Main.capture(limits, eles, s+1, 3, r.connect);
+            Main.capture(limits, eles, s+1, 4, r.execute);
+            Main.capture(limits, eles, s+1, 5, r.fetch);
+            Main.capture(limits, eles, s+1, 6, String.format("%.0f +-%.0f", r.rowsPerSec.mean(), r.rowsPerSec.ci95()));
+        }
+        Main.flush(limits, eles, results.length+1, !parsed.is("dont-align"), !parsed.is("right-align"), parsed.is("leave-whitespace"), parsed.val("field-separator"));
+        Main.out("(mean +-95% confidence interval over "+iterations+" iterations after "+warmup+" warmup)");
+    }
+}
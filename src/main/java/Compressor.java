@@ -0,0 +1,149 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An OutputStream that compresses on a background thread (--compress gzip|zstd|lz4).  Writes are
+ * copied into fixed size blocks which are handed to the compressing thread through a small queue, and
+ * the emptied blocks come back through another, so the writer only stalls when compression falls
+ * behind.  zstd and lz4 use the zstd-jni and lz4-java streams, looked up at run time so the jars are
+ * only needed on the class path when those are asked for.
+ */
+public class Compressor extends OutputStream {
+    static final int BLOCK = 256 * 1024;
+    static final int BLOCKS = 4;
+
+    static class Block {
+        byte[] b = new byte[BLOCK];
+        int n = 0;
+    }
+
+    static class Counting extends FilterOutputStream {
+        long count = 0;
+        Counting(OutputStream out) { super(out); }
+        public void write(int b) throws IOException { out.write(b); count++; }
+        public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+    }
+
+    static final Block EOF = new Block();
+
+    final ArrayBlockingQueue<Block> free = new ArrayBlockingQueue<Block>(BLOCKS);
+    final ArrayBlockingQueue<Block> full = new ArrayBlockingQueue<Block>(BLOCKS+1);
+    final String codec;
+    final Counting target;
+    final OutputStream compressed;
+    final Thread thread;
+    Block current;
+    long in = 0;
+    long writerStall = 0;   // time the writer waited for an empty block
+    long busy = 0;          // time the compressing thread spent compressing
+    volatile Exception error = null;
+    boolean closed = false;
+
+    static OutputStream open(String codec, OutputStream out) throws IOException {
+        if (codec.equals("gzip")) return new GZIPOutputStream(out, 64*1024);
+        String cls = codec.equals("zstd") ? "com.github.luben.zstd.ZstdOutputStream"
+                   : codec.equals("lz4")  ? "net.jpountz.lz4.LZ4FrameOutputStream" : null;
+        if (cls == null) throw new IOException("unknown compression '"+codec+"'; use gzip, zstd or lz4");
+        try {
+            Constructor<?> c = Class.forName(cls).getConstructor(OutputStream.class);
+            return (OutputStream) c.newInstance(out);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(codec+" compression needs "+(codec.equals("zstd") ? "zstd-jni" : "lz4-java")+" on the class path");
+        } catch (Exception e) {
+            throw new IOException("cannot create "+codec+" stream - "+e.toString());
+        }
+    }
+
+    public Compressor(String codec, OutputStream out) throws IOException {
+        this.codec = codec;
+        target = new Counting(out);
+        compressed = open(codec, target);
+        for (int i = 0; i < BLOCKS; i++) free.add(new Block());
+        current = free.poll();
+        thread = new Thread("jdbcq-compress") {
+            public void run() {
+                try {
+                    Block b;
+                    while ((b = full.take()) != EOF) {
+                        long ts = System.nanoTime();
+                        if (error == null) compressed.write(b.b, 0, b.n);
+                        busy += System.nanoTime() - ts;
+                        b.n = 0;
+                        free.put(b);
+                    }
+                    long ts = System.nanoTime();
+                    compressed.close();
+                    busy += System.nanoTime() - ts;
+                } catch (Exception e) {
+                    error = e;
+                    free.clear();
+                    for (int i = 0; i < BLOCKS; i++) free.offer(new Block());  // unblock the writer; it sees the error
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void check() throws IOException {
+        if (error != null) throw new IOException(codec+" compression failed - "+error.toString(), error);
+    }
+
+    void handOff() throws IOException {
+        check();
+        try {
+            full.put(current);
+            long ts = System.nanoTime();
+            current = free.take();
+            writerStall += System.nanoTime() - ts;
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted", e);
+        }
+    }
+
+    public void write(int b) throws IOException {
+        if (current.n == BLOCK) handOff();
+        current.b[current.n++] = (byte) b;
+        in++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        in += len;
+        while (len > 0) {
+            if (current.n == BLOCK) handOff();
+            int n = Math.min(len, BLOCK - current.n);
+            System.arraycopy(b, off, current.b, current.n, n);
+            current.n += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // blocks are handed over as they fill; flushing a partial block would only hurt the compression ratio
+    public void flush() throws IOException { check(); }
+
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (error == null) {  // else the thread is gone and nothing takes the blocks
+                if (current.n > 0) full.put(current);
+                full.put(EOF);
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted", e);
+        }
+        check();
+    }
+
+    public String report() {
+        return String.format("compress %s in=%.1fMB out=%.1fMB ratio=%.2f compress=%.3fms writer-stall=%.3fms",
+                codec, in / (1024.0*1024.0), target.count / (1024.0*1024.0), target.count == 0 ? 0.0 : (double) in / target.count,
+                busy / 1e6, writerStall / 1e6);
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.FileOutputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Whole schema metadata crawl.  The tables of a catalog or schema are listed once and then the
+ * columns, primary key, exported and imported keys and indexes of every table are fetched over a pool
+ * of -C connections (default 4), each worker taking the next table until none are left.  The result
+ * is written as one JSON object per table per line; the latency of every DatabaseMetaData call is
+ * recorded per call type and reported as percentiles.
+ */
+public class Crawl {
+    static final String[] CALLS = {"getColumns", "getPrimaryKeys", "getExportedKeys", "getImportedKeys", "getIndexInfo"};
+
+    static class Worker extends Thread {
+        Connection conn;
+        List<String[]> tables;
+        AtomicInteger next;
+        Renderer out;
+        Histogram[] hist = new Histogram[CALLS.length];
+        Histogram perTable = new Histogram();
+        int done = 0, failed = 0;
+
+        Worker(int n, Connection conn, List<String[]> tables, AtomicInteger next, Renderer out) {
+            super("jdbcq-crawl-"+n);
+            this.conn = conn;
+            this.tables = tables;
+            this.next = next;
+            this.out = out;
+            for (int i = 0; i < hist.length; i++) hist[i] = new Histogram();
+        }
+
+        public void run() {
+            int t;
+            while ((t = next.getAndIncrement()) < tables.size()) {
+                String[] spec = tables.get(t);
+                StringBuilder sb = new StringBuilder();
+                long ts = System.nanoTime();
+                try {
+                    table(conn.getMetaData(), spec, sb);
+                    done++;
+                } catch (SQLException e) {
+                    sb.setLength(0);
+                    sb.append("{\"catalog\":").append(Main.jsonStr(spec[0])).append(",\"schema\":").append(Main.jsonStr(spec[1]))
+                      .append(",\"table\":").append(Main.jsonStr(spec[2])).append(",\"error\":").append(Main.jsonStr(e.toString())).append('}');
+                    failed++;
+                }
+                perTable.record(System.nanoTime() - ts);
+                synchronized (out) {
+                    out.append(sb.toString()).append('\n');
+                }
+            }
+        }
+
+        ResultSet call(DatabaseMetaData m, int call, String[] s) throws SQLException {
+            switch (call) {
+                case 0:  return m.getColumns(s[0], s[1], s[2], null);
+                case 1:  return m.getPrimaryKeys(s[0], s[1], s[2]);
+                case 2:  return m.getExportedKeys(s[0], s[1], s[2]);
+                case 3:  return m.getImportedKeys(s[0], s[1], s[2]);
+                default: return m.getIndexInfo(s[0], s[1], s[2], false, true);
+            }
+        }
+
+        void table(DatabaseMetaData m, String[] s, StringBuilder sb) throws SQLException {
+            sb.append("{\"catalog\":").append(Main.jsonStr(s[0])).append(",\"schema\":").append(Main.jsonStr(s[1]))
+              .append(",\"table\":").append(Main.jsonStr(s[2])).append(",\"type\":").append(Main.jsonStr(s[3]));
+            for (int c = 0; c < CALLS.length; c++) {
+                long ts = System.nanoTime();
+                ResultSet rs = call(m, c, s);
+                try {
+                    switch (c) {
+                        case 0:
+                            sb.append(",\"columns\":[");
+                            for (int i = 0; rs.next(); i++) {
+                                if (i > 0) sb.append(',');
+                                sb.append("{\"name\":").append(Main.jsonStr(rs.getString(4)))
+                                  .append(",\"type\":").append(Main.jsonStr(rs.getString(6)))
+                                  .append(",\"size\":").append(rs.getInt(7))
+                                  .append(",\"nullable\":").append(rs.getInt(11) != DatabaseMetaData.columnNoNulls).append('}');
+                            }
+                            break;
+                        case 1:
+                            sb.append(",\"primaryKey\":[");
+                            List<String> pk = new ArrayList<String>();
+                            while (rs.next()) {
+                                int seq = rs.getInt(5);
+                                while (pk.size() < seq) pk.add(null);
+                                pk.set(seq-1, rs.getString(4));
+                            }
+                            for (int i = 0; i < pk.size(); i++)
+                                sb.append(i > 0 ? "," : "").append(Main.jsonStr(pk.get(i)));
+                            break;
+                        case 2:
+                        case 3:
+                            sb.append(c == 2 ? ",\"exportedKeys\":[" : ",\"importedKeys\":[");
+                            for (int i = 0; rs.next(); i++) {
+                                if (i > 0) sb.append(',');
+                                sb.append("{\"name\":").append(Main.jsonStr(rs.getString(12)))
+                                  .append(",\"pkTable\":").append(Main.jsonStr(rs.getString(3)))
+                                  .append(",\"pkColumn\":").append(Main.jsonStr(rs.getString(4)))
+                                  .append(",\"fkTable\":").append(Main.jsonStr(rs.getString(7)))
+                                  .append(",\"fkColumn\":").append(Main.jsonStr(rs.getString(8)))
+                                  .append(",\"seq\":").append(rs.getInt(9)).append('}');
+                            }
+                            break;
+                        default:
+                            sb.append(",\"indexes\":[");
+                            int i = 0;
+                            while (rs.next()) {
+                                if (rs.getShort(7) == DatabaseMetaData.tableIndexStatistic) continue;
+                                if (i++ > 0) sb.append(',');
+                                sb.append("{\"name\":").append(Main.jsonStr(rs.getString(6)))
+                                  .append(",\"column\":").append(Main.jsonStr(rs.getString(9)))
+                                  .append(",\"pos\":").append(rs.getShort(8))
+                                  .append(",\"unique\":").append(!rs.getBoolean(4))
+                                  .append(",\"type\":").append(Main.jsonStr(Main.idxtype2str(rs.getShort(7)))).append('}');
+                            }
+                    }
+                    sb.append(']');
+                } finally {
+                    rs.close();
+                }
+                hist[c].record(System.nanoTime() - ts);
+            }
+            sb.append('}');
+        }
+    }
+
+    static List<String[]> tables(DatabaseMetaData md, String catalog, String schema) throws SQLException {
+        List<String[]> tables = new ArrayList<String[]>();
+        ResultSet rs = md.getTables(catalog, schema, null, null);
+        try {
+            while (rs.next())
+                tables.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+        } finally {
+            rs.close();
+        }
+        return tables;
+    }
+
+    // diagnostics go to stderr when stdout carries the JSON lines (no -o)
+    static void report(String output, String s) {
+        if (output != null) Main.out(s);
+        else System.err.println(s);
+    }
+
+    public static void run(Connection first, OptionParser.ParsedArgs parsed) throws Exception {
+        String what = parsed.val("crawl");
+        int n = parsed.has("concurrency") ? parsed.valInt("concurrency") : 4;
+        String output = parsed.val("output");
+        if (n < 1) Main.err("--concurrency must be at least 1");
+
+        // the crawl argument is catalog.schema, or a catalog where tables live in catalogs (mysql) and a schema
+        // otherwise; should that find nothing the other reading is tried (h2 reports catalogs but pages on schemas)
+        what = parsed.is("upper") ? what.toUpperCase() : what;
+        DatabaseMetaData md = first.getMetaData();
+        String[] spec = what.split("\\.");
+        boolean hasCat = md.supportsCatalogsInTableDefinitions();
+        long ts = System.nanoTime();
+        List<String[]> tables = spec.length > 1 ? tables(md, spec[0], spec[1])
+                              : tables(md, hasCat ? what : parsed.val("catalog"), hasCat ? null : what);
+        if (tables.isEmpty() && spec.length == 1)
+            tables = tables(md, hasCat ? parsed.val("catalog") : what, hasCat ? what : null);
+        long listNs = System.nanoTime() - ts;
+        if (tables.isEmpty()) Main.err("no tables found in "+what+(parsed.is("upper") ? "" : " (try -y for uppercase names)"));
+        n = Math.min(n, tables.size());
+        if (parsed.is("verbose")) report(output, "crawling "+tables.size()+" tables of "+what+" over "+n+" connections");
+
+        Renderer out = output != null ? new Renderer(new FileOutputStream(output)) : Renderer.stdout();
+        AtomicInteger next = new AtomicInteger(0);
+        Worker[] workers = new Worker[n];
+        try {
+            for (int i = 0; i < n; i++)
+                workers[i] = new Worker(i, i == 0 ? first : Main.getConn(), tables, next, out);
+            for (Worker w : workers)
+                w.start();
+            for (Worker w : workers)
+                w.join();
+        } finally {
+            for (int i = 1; i < n; i++)
+                if (workers[i] != null) { try { workers[i].conn.close(); } catch(Exception e) {} }
+            if (output != null) out.close(); else out.flush();
+        }
+        double secs = (System.nanoTime() - ts) / 1e9;
+
+        if (output != null || parsed.is("timed")) {
+            int done = 0, failed = 0;
+            Histogram perTable = new Histogram();
+            Histogram[] hist = new Histogram[CALLS.length];
+            for (int c = 0; c < CALLS.length; c++) hist[c] = new Histogram();
+            for (Worker w : workers) {
+                done += w.done;
+                failed += w.failed;
+                perTable.add(w.perTable);
+                for (int c = 0; c < CALLS.length; c++) hist[c].add(w.hist[c]);
+            }
+            report(output, String.format("crawled %d tables of %s (%d failed) over %d connections in %.3fs; %.1f tables/s; getTables %.3fms",
+                    done, what, failed, n, secs, done / secs, listNs / 1e6));
+            for (int c = 0; c < CALLS.length; c++)
+                report(output, String.format("%-15s %s", CALLS[c], hist[c].summary()));
+            report(output, String.format("%-15s %s", "table", perTable.summary()));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * Daemon mode (--daemon port).  One jvm keeps running with the config loaded, warm connections per
+ * source (see Session) and a JIT compiled render path, and runs the invocations the thin Client forwards
+ * to it, so calling jdbcq from a script does not pay for jvm startup, driver loading and connecting every
+ * time.  Java 7 has no unix domain sockets, so the daemon listens on the loopback interface only and
+ * writes its port and a random token to ~/.jdbcq.daemon, readable by the owner alone; a connection that
+ * does not present the token is dropped.
+ *
+ * Protocol, all big endian (java.io.DataOutput):
+ *   client: token as int length + UTF-8 bytes, int argument count (-1 stops the daemon), each argument as
+ *           int length + UTF-8 bytes, then stdin as frames of int length + bytes, length 0 at its end
+ *   daemon: frames of byte channel (1 stdout, 2 stderr) + int length + bytes, then byte 0 + int exit code
+ *
+ * Invocations run one at a time, with System.in/out/err pointing at the client for the duration; file
+ * names are taken relative to the directory the daemon was started in.
+ */
+public class Daemon {
+    static final File FILE = new File(System.getProperty("user.home"), ".jdbcq.daemon");
+
+    static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > 16*1024*1024) throw new IOException("bad string length "+n);
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    // stdin of the client, read from its frames as the invocation asks for it
+    static class FrameInput extends InputStream {
+        DataInputStream in;
+        int left = 0;
+        boolean eof = false;
+        FrameInput(DataInputStream in) { this.in = in; }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (left == 0) {
+                if (eof) return -1;
+                left = in.readInt();
+                if (left == 0) eof = true;
+            }
+            int n = in.read(b, off, Math.min(len, left));
+            if (n < 0) { eof = true; left = 0; return -1; }
+            left -= n;
+            return n;
+        }
+
+        public int available() throws IOException { return eof ? 0 : Math.min(left, in.available()); }
+    }
+
+    // stdout or stderr of the invocation, sent as frames of its channel
+    static class FrameOutput extends OutputStream {
+        DataOutputStream out;
+        int channel;
+        FrameOutput(DataOutputStream out, int channel) { this.out = out; this.channel = channel; }
+
+        public void write(int b) throws IOException { write(new byte[]{(byte) b}, 0, 1); }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            synchronized (out) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        public void flush() throws IOException { synchronized (out) { out.flush(); } }
+    }
+
+    static String token() {
+        byte[] b = new byte[16];
+        new SecureRandom().nextBytes(b);
+        return TypedColumns.hex(b);
+    }
+
+    // write port and token where only the owner can read them
+    static void publish(int port, String token) throws IOException {
+        FILE.delete();
+        FILE.createNewFile();
+        try {
+            Files.setPosixFilePermissions(FILE.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            FILE.setReadable(false, false);
+            FILE.setReadable(true, true);
+        }
+        FileOutputStream os = new FileOutputStream(FILE);
+        try {
+            os.write((port+" "+token+"\n").getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+    // the options of an invocation with every value and argument masked, for the -v log; values can be passwords
+    static String shape(OptionParser o, String[] args) {
+        StringBuilder sb = new StringBuilder();
+        boolean value = false;
+        for (String a : args) {
+            if (sb.length() > 0) sb.append(' ');
+            if (value || !a.startsWith("-") || a.length() < 2) {
+                sb.append('*');
+                value = false;
+                continue;
+            }
+            sb.append(a);
+            if (a.startsWith("--")) {
+                OptionParser.OptDef d = o.defs.get(a.substring(2));
+                value = d != null && d.setClass != Boolean.class;
+            } else {
+                for (int i = 1; i < a.length() && !value; i++) {  // -tq: the first option taking a value takes the next argument
+                    OptionParser.OptDef d = o.defs.get(String.valueOf(a.charAt(i)));
+                    value = d != null && d.setClass != Boolean.class;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void serve(OptionParser.ParsedArgs parsed) throws Exception {
+        String token = token();
+        ServerSocket server = new ServerSocket(parsed.valInt("daemon"), 50, InetAddress.getByName("127.0.0.1"));
+        publish(server.getLocalPort(), token);
+        boolean verbose = parsed.is("verbose");
+        OptionParser options = Main.options();
+        Main.config();  // kept for the life of the daemon
+        Main.daemon = true;
+        Main.pool = new Session();
+        PrintStream stdout = System.out, stderr = System.err;
+        InputStream stdin = System.in;
+        stdout.println("jdbcq daemon listening on 127.0.0.1:"+server.getLocalPort()+"; port and token in "+FILE);
+        boolean stop = false;
+        try {
+            while (!stop) {
+                Socket s = server.accept();
+                long ts = System.nanoTime();
+                String what = null;
+                int rc = 0;
+                try {
+                    s.setTcpNoDelay(true);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64*1024));
+                    if (!readString(in).equals(token)) {
+                        stderr.println("jdbcq daemon: dropped a connection with a bad token");
+                        continue;
+                    }
+                    int n = in.readInt();
+                    if (n < 0) {
+                        stop = true;
+                        what = "stop";
+                    } else {
+                        String[] args = new String[n];
+                        for (int i = 0; i < n; i++) args[i] = readString(in);
+                        what = shape(options, args);
+                        PrintStream o = new PrintStream(new BufferedOutputStream(new FrameOutput(out, 1), 64*1024), false, "UTF-8");
+                        PrintStream e = new PrintStream(new FrameOutput(out, 2), true, "UTF-8");
+                        System.setOut(o);
+                        System.setErr(e);
+                        System.setIn(new FrameInput(in));
+                        try {
+                            rc = Main.run(args);
+                        } finally {
+                            o.flush();
+                            e.flush();
+                            System.setOut(stdout);
+                            System.setErr(stderr);
+                            System.setIn(stdin);
+                        }
+                    }
+                    synchronized (out) {
+                        out.writeByte(0);
+                        out.writeInt(rc);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    stderr.println("jdbcq daemon: "+(what != null ? what+" - " : "")+e.toString());
+                } finally {
+                    try { s.close(); } catch(Exception e) {}
+                }
+                if (verbose) stdout.println(String.format("%s -> %d in %.3fms", what, rc, (System.nanoTime()-ts)/1e6));
+            }
+        } finally {
+            server.close();
+            Main.pool.close();
+            FILE.delete();
+        }
+    }
+}
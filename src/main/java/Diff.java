@@ -0,0 +1,304 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Compares the result of an ordered query on two jdbcq.conf sources (--diff a,b) without holding either
+ * result.  Each source is read on its own thread, which hashes every value into a block of --buffer rows;
+ * the blocks pass through a small queue to the comparing thread, so memory stays at a few blocks per side
+ * however large the result.  Rows are compared in lockstep, column hash by column hash, and the first
+ * divergences are listed with the first column of the row (normally the key the query orders by).
+ *
+ * Values are hashed by kind rather than text so the same data compares equal across drivers: integers,
+ * integral decimals and doubles as the number, other decimals without trailing zeros, dates and times as
+ * their instant, binary as bytes and everything else as the string.
+ *
+ * With --checksum-every N only a checksum of each chunk of N rows is printed per source, which also works
+ * with a single source to record checksums of a very large table and compare them later.
+ */
+public class Diff {
+    static final int SHOWN = 10;  // divergences listed
+    static final long NULL = 0x9E3779B97F4A7C15L;
+
+    static class Block {
+        long[] hashes;  // rows * columns
+        String[] keys;  // first column as text, for reporting
+        int n = 0;
+        Block(int rows, int cols) { hashes = new long[rows*cols]; keys = new String[rows]; }
+    }
+
+    static final Block EOF = new Block(0, 0);
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static long fnv(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        return h;
+    }
+
+    static long fnv(byte[] b) {
+        long h = 0xcbf29ce484222325L;
+        for (byte v : b) h = (h ^ (v & 0xff)) * 0x100000001b3L;
+        return ~h;  // keep bytes apart from the same text
+    }
+
+    static long hash(ResultSet rs, int c, int kind) throws SQLException {
+        switch (kind) {
+            case TypedColumns.LONG:
+            case TypedColumns.INT: {
+                long v = rs.getLong(c);
+                return rs.wasNull() ? NULL : mix(v);
+            }
+            case TypedColumns.DOUBLE: {
+                double v = rs.getDouble(c);
+                if (rs.wasNull()) return NULL;
+                return v == Math.rint(v) && Math.abs(v) < 9.2e18 ? mix((long) v) : mix(Double.doubleToLongBits(v));
+            }
+            case TypedColumns.DECIMAL: {
+                BigDecimal v = rs.getBigDecimal(c);
+                if (v == null) return NULL;
+                if (v.signum() == 0) return mix(0);
+                v = v.stripTrailingZeros();
+                if (v.scale() <= 0 && v.precision() - v.scale() < 19) return mix(v.longValue());
+                return fnv(v.toPlainString());
+            }
+            case TypedColumns.BOOLEAN: {
+                boolean v = rs.getBoolean(c);
+                return rs.wasNull() ? NULL : mix(v ? 1 : 0);
+            }
+            case TypedColumns.DATE:
+            case TypedColumns.TIME:
+            case TypedColumns.TIMESTAMP: {
+                java.util.Date d = kind == TypedColumns.DATE ? rs.getDate(c) : kind == TypedColumns.TIME ? rs.getTime(c) : rs.getTimestamp(c);
+                if (d == null) return NULL;
+                long ms = d.getTime();
+                int nanos = d instanceof Timestamp ? ((Timestamp) d).getNanos() % 1000000 : 0;
+                return mix(ms * 1000000L + nanos);
+            }
+            case TypedColumns.BYTES:
+            case TypedColumns.BLOB: {
+                byte[] b = rs.getBytes(c);
+                return b == null ? NULL : fnv(b);
+            }
+            default: {
+                String s = rs.getString(c);
+                return s == null ? NULL : fnv(s);
+            }
+        }
+    }
+
+    static class Reader extends Thread {
+        String source, sql;
+        OptionParser.ParsedArgs parsed;
+        int rows;
+        boolean keys;
+        ArrayBlockingQueue<Block> full = new ArrayBlockingQueue<Block>(4);
+        String[] names;
+        volatile Exception error = null;
+        volatile boolean stopped = false;
+        volatile Statement stmt = null;
+        long fetchNs = 0, count = 0;
+
+        Reader(String source, String sql, OptionParser.ParsedArgs parsed, int rows, boolean keys) {
+            super("jdbcq-diff-"+source);
+            this.source = source; this.sql = sql; this.parsed = parsed; this.rows = rows; this.keys = keys;
+            setDaemon(true);
+        }
+
+        public void run() {
+            Connection conn = null;
+            boolean ok = false;
+            try {
+                conn = Main.getConn(source);
+                stmt = Main.statement(conn, parsed);
+                long ts = System.nanoTime();
+                ResultSet rs = stmt.executeQuery(sql);
+                ResultSetMetaData md = rs.getMetaData();
+                int cols = md.getColumnCount();
+                int[] kind = new int[cols];
+                String[] n = new String[cols];
+                for (int i = 0; i < cols; i++) {
+                    kind[i] = TypedColumns.kindOf(md.getColumnType(i+1));
+                    n[i] = md.getColumnName(i+1);
+                }
+                names = n;
+                Block b = new Block(rows, cols);
+                while (!stopped && rs.next()) {
+                    int at = b.n * cols;
+                    for (int i = 0; i < cols; i++) b.hashes[at+i] = hash(rs, i+1, kind[i]);
+                    if (keys) b.keys[b.n] = rs.getString(1);
+                    count++;
+                    if (++b.n == rows) {
+                        fetchNs += System.nanoTime() - ts;
+                        full.put(b);
+                        ts = System.nanoTime();
+                        b = new Block(rows, cols);
+                    }
+                }
+                fetchNs += System.nanoTime() - ts;
+                rs.close();
+                if (b.n > 0) full.put(b);
+                ok = true;
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                if (stmt != null) { try { stmt.close(); } catch(Exception e) {} }
+                try { Main.streamDone(conn, ok); } catch(Exception e) {}
+                if (conn != null) { try { conn.close(); } catch(Exception e) {} }
+                try { full.put(EOF); } catch(InterruptedException e) {}
+            }
+        }
+
+        Block take() throws SQLException {
+            try {
+                Block b = full.take();
+                if (error != null) throw new SQLException(source+" failed - "+error.toString(), error);
+                return b;
+            } catch (InterruptedException e) {
+                throw new SQLException("interrupted", e);
+            }
+        }
+
+        // give up on the rest of the result: cancel the query, and wake the thread if it waits on the queue
+        void cancel() {
+            stopped = true;
+            Statement s = stmt;
+            if (s != null) { try { s.cancel(); } catch(Exception e) {} }
+            interrupt();
+        }
+    }
+
+    static String hex(long h) { return String.format("%016x", h); }
+
+    public static void run(String sql, OptionParser.ParsedArgs parsed) throws Exception {
+        String[] sources = parsed.val("diff").split(",");
+        int every = parsed.has("checksum-every") ? parsed.valInt("checksum-every") : 0;
+        if (sources.length > 2 || (sources.length < 2 && every == 0))
+            throw new SQLException("--diff takes two comma separated sources (or one with --checksum-every)");
+        int rows = Math.max(1, Integer.parseInt(parsed.val("buffer")));
+        long start = System.nanoTime();
+        Reader[] r = new Reader[sources.length];
+        boolean finished = false;
+        try {
+            for (int s = 0; s < r.length; s++) {
+                r[s] = new Reader(sources[s], sql, parsed, rows, every == 0);
+                r[s].start();
+            }
+            compare(r, sources, every, start);
+            finished = true;
+        } finally {
+            if (!finished) stop(r);
+        }
+    }
+
+    // when the comparison fails, stop the readers and wait until they have closed their connections
+    static void stop(Reader[] r) {
+        for (Reader t : r) if (t != null) t.cancel();
+        for (Reader t : r) {
+            while (t != null && t.isAlive()) {
+                t.full.clear();  // a reader blocked in put() gets its room
+                try { t.join(100); } catch(InterruptedException e) { return; }
+            }
+        }
+    }
+
+    static void compare(Reader[] r, String[] sources, int every, long start) throws Exception {
+        long row = 0, differing = 0, chunkFrom = 1;
+        long[] sum = new long[r.length];
+        List<String> shown = new ArrayList<String>();
+        Block[] b = new Block[r.length];
+        int[] at = new int[r.length];
+        boolean[] done = new boolean[r.length];
+        int cols = -1;
+        while (true) {
+            // advance every side to its next row; stop when either runs out
+            boolean all = true;
+            for (int s = 0; s < r.length; s++) {
+                if (b[s] == null || at[s] == b[s].n) {
+                    b[s] = r[s].take();
+                    at[s] = 0;
+                    done[s] = b[s] == EOF;
+                }
+                all &= !done[s];
+            }
+            if (!all) break;
+            if (cols < 0) {
+                cols = r[0].names.length;
+                if (r.length > 1 && r[1].names.length != cols)
+                    throw new SQLException(sources[0]+" returns "+cols+" columns but "+sources[1]+" "+r[1].names.length);
+            }
+            row++;
+            for (int s = 0; s < r.length; s++) {
+                int base = at[s] * cols;
+                long h = sum[s];
+                for (int i = 0; i < cols; i++) h = mix(h ^ b[s].hashes[base+i]);
+                sum[s] = h;
+            }
+            if (every == 0) {
+                int x = at[0] * cols, y = at[1] * cols;
+                StringBuilder cells = null;
+                for (int i = 0; i < cols; i++) {
+                    if (b[0].hashes[x+i] == b[1].hashes[y+i]) continue;
+                    if (cells == null) cells = new StringBuilder();
+                    else cells.append(", ");
+                    cells.append(r[0].names[i]);
+                }
+                if (cells != null && differing++ < SHOWN) {
+                    String k0 = b[0].keys[at[0]], k1 = b[1].keys[at[1]];
+                    shown.add("row "+row+" ("+r[0].names[0]+" "+k0+(Main.safestr(k0).equals(Main.safestr(k1)) ? "" : " vs "+k1)+") differs in "+cells);
+                }
+            } else if (row % every == 0) {
+                if (checksum(chunkFrom, row, sources, sum)) differing++;
+                chunkFrom = row + 1;
+            }
+            for (int s = 0; s < r.length; s++) at[s]++;
+        }
+        if (every > 0 && chunkFrom <= row && checksum(chunkFrom, row, sources, sum)) differing++;
+        // let the side that is still going finish so its row count is known
+        for (int s = 0; s < r.length; s++)
+            while (!done[s]) done[s] = r[s].take() == EOF;
+        double secs = (System.nanoTime() - start) / 1e9;
+        for (Reader t : r) t.join();
+
+        for (String s : shown) Main.out(s);
+        if (differing > SHOWN && every == 0) Main.out("... "+(differing - SHOWN)+" more differing rows");
+        StringBuilder counts = new StringBuilder();
+        for (int s = 0; s < r.length; s++)
+            counts.append(s > 0 ? ", " : "").append(String.format("%s %d rows fetched in %.3fs", sources[s], r[s].count, r[s].fetchNs / 1e9));
+        if (r.length > 1) {
+            boolean same = differing == 0 && r[0].count == r[1].count;
+            Main.out(String.format("%s: compared %d rows in %.3fs; %.1f rows/s; %d %s (%s)",
+                    same ? "identical" : "DIFFERENT", row, secs, row / secs, differing, every > 0 ? "differing chunks" : "differing rows", counts));
+            if (r[0].count != r[1].count)
+                Main.out((r[0].count > r[1].count ? sources[0] : sources[1])+" has "+Math.abs(r[0].count - r[1].count)+" more rows");
+        } else {
+            Main.out(String.format("checksummed %d rows in %.3fs; %.1f rows/s (%s)", row, secs, row / secs, counts));
+        }
+    }
+
+    // print the checksums of rows from-to and start the next chunk; true when the sources differ
+    static boolean checksum(long from, long to, String[] sources, long[] sum) {
+        StringBuilder sb = new StringBuilder("rows "+from+"-"+to);
+        boolean differs = false;
+        for (int s = 0; s < sources.length; s++) {
+            sb.append(' ').append(sources[s]).append('=').append(hex(sum[s]));
+            differs |= sum[s] != sum[0];
+        }
+        if (differs) sb.append(" DIFFERENT");
+        Main.out(sb.toString());
+        for (int s = 0; s < sum.length; s++) sum[s] = 0;
+        return differs;
+    }
+}
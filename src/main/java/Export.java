@@ -0,0 +1,249 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel table export.  The table is split into key ranges on the leading primary key column
+ * (between its min and max) and the ranges are read concurrently over a pool of connections.  Each
+ * range is written to its own file, or, without -o, to a temporary file that is copied to stdout
+ * in key order as soon as all ranges before it are done.
+ */
+public class Export {
+
+    static class Partition {
+        int n;
+        String where;
+        File file;
+        long rows = 0;
+        long ns = 0;
+        Exception error = null;
+        CountDownLatch done = new CountDownLatch(1);
+    }
+
+    static boolean isNumeric(int type) {
+        switch (type) {
+            case Types.BIGINT: case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+            case Types.DECIMAL: case Types.NUMERIC: case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isIntegral(int type) {
+        return type==Types.BIGINT || type==Types.INTEGER || type==Types.SMALLINT || type==Types.TINYINT;
+    }
+
+    // row count hint from the index statistics (or the largest unique index) of the table
+    static long cardinality(Connection conn, String tbl) throws SQLException {
+        String[] spec = Main.tableSpec(conn, tbl);
+        ResultSet rs = conn.getMetaData().getIndexInfo(spec[0], spec[1], spec[2], true, true);
+        long card = -1;
+        try {
+            while (rs.next()) {
+                if (rs.getShort(7) == DatabaseMetaData.tableIndexStatistic) return rs.getLong(11);
+                card = Math.max(card, rs.getLong(11));
+            }
+        } finally {
+            rs.close();
+        }
+        return card;
+    }
+
+    // write rows of the partition as field separated lines; the first line holds the column names
+    static void write(Connection conn, String tbl, Partition p, int[] col, OptionParser.ParsedArgs parsed) throws Exception {
+        String fieldSep = parsed.val("field-separator");
+        boolean leave = parsed.is("leave-whitespace");
+        long ts = System.nanoTime();
+        Statement stmt = Main.statement(conn, parsed);
+        Renderer r = new Renderer(new FileOutputStream(p.file));
+        boolean ok = false;
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT * FROM "+tbl+" WHERE "+p.where);
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 0; i < col.length; i++) {
+                if (i > 0) r.append(fieldSep);
+                r.field(md.getColumnName(col[i]), leave);
+            }
+            r.append('\n');
+            while (rs.next()) {
+                for (int i = 0; i < col.length; i++) {
+                    if (i > 0) r.append(fieldSep);
+                    r.field(rs.getString(col[i]), leave);
+                }
+                r.append('\n');
+                p.rows++;
+            }
+            rs.close();
+            ok = true;
+        } finally {
+            r.close();
+            try { stmt.close(); } catch(Exception e) {}
+            Main.streamDone(conn, ok);
+        }
+        p.ns = System.nanoTime() - ts;
+    }
+
+    // copy a finished partition to stdout; all but the first partition skip their header line
+    static void copy(Partition p, boolean header) throws Exception {
+        byte[] buf = new byte[64*1024];
+        InputStream in = new FileInputStream(p.file);
+        try {
+            int n, off = 0;
+            boolean skipping = !header;
+            while ((n = in.read(buf)) > 0) {
+                off = 0;
+                if (skipping) {
+                    while (off < n && buf[off] != '\n') off++;
+                    if (off < n) { off++; skipping = false; }
+                }
+                if (off < n) System.out.write(buf, off, n - off);
+            }
+            System.out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    // diagnostics go to stderr when stdout carries the rows (no -o)
+    static void report(String output, String s) {
+        if (output != null) Main.out(s);
+        else System.err.println(s);
+    }
+
+    public static void run(Connection first, String tbl, OptionParser.ParsedArgs parsed) throws Exception {
+        int parts = parsed.valInt("export");
+        int n = parsed.has("concurrency") ? parsed.valInt("concurrency") : parts;
+        String output = parsed.val("output");
+        if (tbl == null) Main.err("--export needs a table name");
+        if (parts < 1 || n < 1) Main.err("--export and --concurrency must be at least 1");
+        n = Math.min(n, parts);
+
+        List<String> keys = Main.primaryKeyColumns(first, tbl);
+        if (keys.isEmpty()) Main.err("no primary key found for "+tbl+" (try -y for uppercase names); export splits on the leading key column");
+        String key = keys.get(0);
+
+        Statement stmt = first.createStatement();
+        BigDecimal min, max;
+        int keyType;
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT MIN("+key+"), MAX("+key+") FROM "+tbl);
+            keyType = rs.getMetaData().getColumnType(1);
+            if (!isNumeric(keyType)) Main.err("export needs a numeric leading primary key column; "+key+" is "+rs.getMetaData().getColumnTypeName(1));
+            rs.next();
+            min = rs.getBigDecimal(1);
+            max = rs.getBigDecimal(2);
+            rs.close();
+        } finally {
+            try { stmt.close(); } catch(Exception e) {}
+        }
+        if (min == null) { min = BigDecimal.ZERO; max = BigDecimal.ZERO; }
+        if (parsed.is("verbose")) {
+            long card = cardinality(first, tbl);
+            report(output, "exporting "+tbl+" on "+key+" ["+min.toPlainString()+".."+max.toPlainString()+"] in "+parts+" partitions over "+n+" connections"
+                     +(card>=0 ? "; about "+card+" rows ("+(card/parts)+" per partition)" : ""));
+        }
+
+        // split [min,max] into equal key ranges
+        final Partition[] partitions = new Partition[parts];
+        BigDecimal span = max.subtract(min);
+        BigDecimal lo = min;
+        for (int i = 0; i < parts; i++) {
+            Partition p = partitions[i] = new Partition();
+            p.n = i;
+            BigDecimal hi = min.add(span.multiply(BigDecimal.valueOf(i+1)).divide(BigDecimal.valueOf(parts), isIntegral(keyType) ? 0 : 10, RoundingMode.FLOOR));
+            // the first and last ranges are open ended so nothing is lost to rounding
+            p.where = i > 0 ? key+" >= "+lo.toPlainString() : "";
+            if (i < parts-1) p.where += (i > 0 ? " AND " : "")+key+" < "+hi.toPlainString();
+            if (p.where.length() == 0) p.where = "1=1";
+            lo = hi;
+            if (output != null) {
+                p.file = new File(String.format("%s.%03d", output, i));
+            } else {
+                p.file = File.createTempFile("jdbcq-export-", ".tmp");
+                p.file.deleteOnExit();
+            }
+        }
+
+        // a fixed pool of connections, each taking the next partition until none are left
+        final Connection[] conns = new Connection[n];
+        conns[0] = first;
+        final AtomicInteger next = new AtomicInteger(0);
+        final String table = tbl;
+        final OptionParser.ParsedArgs args = parsed;
+        final int[] col;
+        Thread[] workers = new Thread[n];
+        long ts = System.nanoTime();
+        try {
+            for (int i = 1; i < n; i++)
+                conns[i] = Main.getConn();
+            Statement s = first.createStatement();
+            try {
+                ResultSet rs = s.executeQuery("SELECT * FROM "+tbl+" WHERE 1=0");
+                int cnt = rs.getMetaData().getColumnCount();
+                col = Main.columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-"+cnt);
+                rs.close();
+            } finally {
+                try { s.close(); } catch(Exception e) {}
+            }
+            for (int i = 0; i < n; i++) {
+                final Connection conn = conns[i];
+                workers[i] = new Thread("jdbcq-export-"+i) {
+                    public void run() {
+                        int p;
+                        while ((p = next.getAndIncrement()) < partitions.length) {
+                            try { write(conn, table, partitions[p], col, args); }
+                            catch (Exception e) { partitions[p].error = e; }
+                            partitions[p].done.countDown();
+                        }
+                    }
+                };
+                workers[i].start();
+            }
+            long rows = 0;
+            Exception error = null;
+            for (Partition p : partitions) {
+                p.done.await();
+                if (p.error != null) {
+                    error = p.error;
+                    System.err.println("partition "+p.n+" ("+p.where+") failed - "+p.error.toString());  // stdout may carry the rows
+                } else if (output == null) {
+                    copy(p, p.n == 0);
+                    p.file.delete();
+                }
+                rows += p.rows;
+            }
+            for (Thread w : workers)
+                w.join();
+            double secs = (System.nanoTime() - ts) / 1e9;
+            if (output != null || parsed.is("timed")) {
+                if (parsed.is("verbose")) {
+                    for (Partition p : partitions)
+                        report(output, String.format("%s %d rows in %.3fs (%s)", output != null ? p.file.getPath() : "partition "+p.n, p.rows, p.ns/1e9, p.where));
+                }
+                report(output, String.format("exported %d rows of %s in %d partitions over %d connections in %.3fs; %.1f rows/s",
+                        rows, tbl, parts, n, secs, rows/secs));
+            }
+            if (error != null) {
+                System.err.println("export incomplete");
+                Main.exit(2);
+            }
+        } finally {
+            for (int i = 1; i < n; i++)
+                if (conns[i] != null) { try { conns[i].close(); } catch(Exception e) {} }
+        }
+    }
+}
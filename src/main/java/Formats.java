@@ -0,0 +1,217 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.regex.Pattern;
+
+/**
+ * Machine readable output (--format csv|jsonl|binary, and arrow, see Arrow).  Unlike the table output nothing is buffered
+ * to find column widths: each row is written as it is fetched, to -o or stdout, optionally through a
+ * background Compressor (--compress).
+ *
+ *   csv    - RFC 4180, a title line, fields with a comma, quote or line break quoted
+ *   jsonl  - one JSON object per row keyed by column name; numbers and booleans unquoted, binary as hex
+ *   binary - a header then typed values, all big endian (java.io.DataOutput):
+ *              "JDBQ", version byte 1, int column count, per column: UTF name, int java.sql.Types type
+ *              per row: byte 1, then per column byte 0 (null) or 1 followed by the value:
+ *                integers long, floating point double, boolean byte, date/time long epoch millis,
+ *                timestamp long epoch millis + int nanos, binary int length + bytes,
+ *                anything else (decimals too) int length + UTF-8 bytes
+ *              byte 0 after the last row
+ */
+public class Formats {
+
+    // stdout for the writers; closing it (at the end of a compressed stream) only flushes
+    static OutputStream stdout() {
+        return new FilterOutputStream(System.out) {
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+            public void close() throws IOException { flush(); }
+        };
+    }
+
+    // the JSON number grammar; anything else a driver returns for a numeric column (NaN, Infinity, +1, .5) is quoted
+    static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    static boolean isNumber(String s) {
+        return NUMBER.matcher(s).matches();
+    }
+
+    static String text(ResultSet rs, int c, int kind) throws SQLException {
+        if (kind == TypedColumns.BYTES || kind == TypedColumns.BLOB) {
+            byte[] b = rs.getBytes(c);
+            return b == null ? null : TypedColumns.hex(b);
+        }
+        return rs.getString(c);
+    }
+
+    public static void stream(ResultSet rs, OptionParser.ParsedArgs parsed) throws SQLException {
+        String format = parsed.val("format");
+        if (format.equals("arrow")) {
+            Arrow.stream(rs, parsed);
+            return;
+        }
+        if (!format.equals("csv") && !format.equals("jsonl") && !format.equals("binary"))
+            throw new SQLException("unknown --format '"+format+"'; use csv, jsonl, binary or arrow");
+        ResultSetMetaData md = rs.getMetaData();
+        int[] col = Main.columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-" + md.getColumnCount());
+        String[] names = new String[col.length];
+        int[] type = new int[col.length];
+        int[] kind = new int[col.length];
+        for (int i = 0; i < col.length; i++) {
+            names[i] = md.getColumnName(col[i]);
+            type[i] = md.getColumnType(col[i]);
+            kind[i] = TypedColumns.kindOf(type[i]);
+        }
+
+        String output = parsed.val("output");
+        Compressor comp = null;
+        long total = 0, fetch = 0, ts = 0;
+        long start = System.nanoTime();
+        long outputNs = 0;
+        OutputStream file = null;
+        try {
+            OutputStream os = file = output != null ? new FileOutputStream(output) : stdout();
+            if (parsed.has("compress")) os = comp = new Compressor(parsed.val("compress"), os);
+            if (format.equals("binary")) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64*1024));
+                out.writeBytes("JDBQ");
+                out.writeByte(1);
+                out.writeInt(col.length);
+                for (int i = 0; i < col.length; i++) {
+                    out.writeUTF(names[i]);
+                    out.writeInt(type[i]);
+                }
+                while (true) {
+                    ts = System.nanoTime();
+                    if (!rs.next()) break;
+                    fetch += System.nanoTime() - ts;
+                    if (total++ == 0) Main.timing.firstRow = System.nanoTime()-Main.timing.start;
+                    out.writeByte(1);
+                    for (int i = 0; i < col.length; i++)
+                        binary(out, rs, col[i], kind[i]);
+                }
+                fetch += System.nanoTime() - ts;
+                out.writeByte(0);
+                ts = System.nanoTime();
+                out.close();
+                outputNs = System.nanoTime() - ts;
+            } else {
+                boolean csv = format.equals("csv");
+                Renderer r = new Renderer(os);
+                if (csv) {
+                    for (int i = 0; i < col.length; i++) {
+                        if (i > 0) r.append(',');
+                        r.csv(names[i], ',');
+                    }
+                    r.append('\n');
+                }
+                while (true) {
+                    ts = System.nanoTime();
+                    if (!rs.next()) break;
+                    fetch += System.nanoTime() - ts;
+                    if (total++ == 0) Main.timing.firstRow = System.nanoTime()-Main.timing.start;
+                    if (csv) {
+                        for (int i = 0; i < col.length; i++) {
+                            if (i > 0) r.append(',');
+                            r.csv(text(rs, col[i], kind[i]), ',');
+                        }
+                    } else {
+                        r.append('{');
+                        for (int i = 0; i < col.length; i++) {
+                            if (i > 0) r.append(',');
+                            r.json(names[i]);
+                            r.append(':');
+                            if (kind[i] == TypedColumns.BOOLEAN) {
+                                boolean b = rs.getBoolean(col[i]);
+                                r.append(rs.wasNull() ? "null" : b ? "true" : "false");
+                                continue;
+                            }
+                            String s = text(rs, col[i], kind[i]);
+                            boolean number = s != null && kind[i] <= TypedColumns.DECIMAL && isNumber(s);
+                            if (number) r.append(s); else r.json(s);
+                        }
+                        r.append('}');
+                    }
+                    r.append('\n');
+                }
+                fetch += System.nanoTime() - ts;
+                r.close();
+                outputNs = r.outputNs;
+            }
+        } catch (IOException e) {
+            throw new SQLException("writing "+format+(output != null ? " to "+output : "")+" failed - "+e.getMessage(), e);
+        } finally {
+            // already closed unless a fetch or write failed; the compressing thread must not be left waiting
+            if (comp != null) { try { comp.close(); } catch(Exception e) {} }
+            if (file != null) { try { file.close(); } catch(Exception e) {} }
+        }
+        Main.timing.rows += total;
+        Main.timing.fetch += fetch;
+        Main.timing.output += outputNs;
+        Main.timing.render += System.nanoTime() - start - fetch - outputNs;
+        if (comp != null && parsed.is("timed")) {
+            if (output != null) Main.out(comp.report());
+            else System.err.println(comp.report());  // stdout carries the compressed data
+        }
+    }
+
+    static void binary(DataOutputStream out, ResultSet rs, int c, int kind) throws IOException, SQLException {
+        switch (kind) {
+            case TypedColumns.LONG:
+            case TypedColumns.INT: {
+                long v = rs.getLong(c);
+                if (rs.wasNull()) { out.writeByte(0); return; }
+                out.writeByte(1);
+                out.writeLong(v);
+                return;
+            }
+            case TypedColumns.DOUBLE: {
+                double v = rs.getDouble(c);
+                if (rs.wasNull()) { out.writeByte(0); return; }
+                out.writeByte(1);
+                out.writeDouble(v);
+                return;
+            }
+            case TypedColumns.BOOLEAN: {
+                boolean v = rs.getBoolean(c);
+                if (rs.wasNull()) { out.writeByte(0); return; }
+                out.writeByte(1);
+                out.writeByte(v ? 1 : 0);
+                return;
+            }
+            case TypedColumns.DATE:
+            case TypedColumns.TIME:
+            case TypedColumns.TIMESTAMP: {
+                java.util.Date d = kind == TypedColumns.DATE ? rs.getDate(c) : kind == TypedColumns.TIME ? rs.getTime(c) : rs.getTimestamp(c);
+                if (d == null) { out.writeByte(0); return; }
+                out.writeByte(1);
+                out.writeLong(d.getTime());
+                if (kind == TypedColumns.TIMESTAMP) out.writeInt(((Timestamp) d).getNanos());
+                return;
+            }
+            case TypedColumns.BYTES:
+            case TypedColumns.BLOB: {
+                byte[] b = rs.getBytes(c);
+                if (b == null) { out.writeByte(0); return; }
+                out.writeByte(1);
+                out.writeInt(b.length);
+                out.write(b);
+                return;
+            }
+            default: {
+                String s = rs.getString(c);
+                if (s == null) { out.writeByte(0); return; }
+                byte[] b = s.getBytes("UTF-8");
+                out.writeByte(1);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+    }
+}
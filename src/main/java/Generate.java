@@ -0,0 +1,208 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic rows for a table ('generate tbl rows [writers]').  The columns are taken from getColumns
+ * and filled with values of their type within their size; nullable columns are null now and then and
+ * auto increment columns are left to the database.  The leading primary key column counts up from its
+ * current maximum so keys stay unique.  Every row is generated from the --seed and its row number
+ * alone, so the same seed produces the same data whatever the number of writers.
+ *
+ * The rows are split into one contiguous range per writer connection and inserted with batched
+ * prepared statements (--batch-size rows per executeBatch, a commit every --commit-every rows).
+ */
+public class Generate {
+    static final long EPOCH = Timestamp.valueOf("2000-01-01 00:00:00").getTime();
+    static final long SPAN = 30L*365*24*3600*1000;  // values are spread over 30 years from EPOCH
+    static final char[] ALNUM = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    static class Column {
+        String name;
+        int type;
+        int size;
+        int digits;
+        boolean nullable;
+        boolean key;  // leading primary key column: unique values counting up from 'base'
+    }
+
+    // splitmix64; cheap, and seeded per row so rows do not depend on which writer makes them
+    static class Rng {
+        long state;
+        void seed(long seed, long row) { state = seed + row * 0x9E3779B97F4A7C15L; state = next(); }  // scrambled start per row
+        long next() {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+        int below(int n) { return (int)((next() >>> 33) % n); }
+        double fraction() { return (next() >>> 11) * 0x1.0p-53; }
+    }
+
+    static List<Column> columns(Connection conn, String tbl) throws SQLException {
+        String[] spec = Main.tableSpec(conn, tbl);
+        List<String> keys = Main.primaryKeyColumns(conn, tbl);
+        List<Column> cols = new ArrayList<Column>();
+        ResultSet rs = conn.getMetaData().getColumns(spec[0], spec[1], spec[2], null);
+        try {
+            while (rs.next()) {
+                String auto = "";
+                try { auto = Main.safestr(rs.getString(23)); } catch (SQLException e) {}  // IS_AUTOINCREMENT, jdbc 4.1
+                if (auto.equalsIgnoreCase("YES")) continue;
+                Column c = new Column();
+                c.name = rs.getString(4);
+                c.type = rs.getInt(5);
+                c.size = rs.getInt(7);
+                c.digits = rs.getInt(9);
+                c.nullable = rs.getInt(11) == DatabaseMetaData.columnNullable;
+                c.key = !keys.isEmpty() && keys.get(0).equalsIgnoreCase(c.name);
+                cols.add(c);
+            }
+        } finally {
+            rs.close();
+        }
+        return cols;
+    }
+
+    static String text(Rng r, int len) {
+        char[] c = new char[len];
+        for (int i = 0; i < len; i++) c[i] = ALNUM[r.below(ALNUM.length)];
+        return new String(c);
+    }
+
+    static void set(PreparedStatement ps, int p, Column c, Rng r, long row, long base) throws SQLException {
+        if (c.key) {
+            long k = base + row;
+            switch (c.type) {
+                case Types.CHAR: case Types.VARCHAR: case Types.NCHAR: case Types.NVARCHAR: case Types.LONGVARCHAR:
+                    ps.setString(p, Long.toString(k, 36)); return;
+                case Types.DATE:      ps.setDate(p, new Date(EPOCH + k*24*3600*1000)); return;
+                case Types.TIMESTAMP: ps.setTimestamp(p, new Timestamp(EPOCH + k*1000)); return;
+                default:              ps.setLong(p, k); return;
+            }
+        }
+        if (c.nullable && r.below(20) == 0) { ps.setNull(p, c.type); return; }
+        int size = c.size > 0 ? c.size : 32;
+        switch (c.type) {
+            case Types.BIT: case Types.BOOLEAN:
+                ps.setBoolean(p, (r.next() & 1) == 1); break;
+            case Types.TINYINT:
+                ps.setInt(p, r.below(128)); break;
+            case Types.SMALLINT:
+                ps.setInt(p, r.below(32768)); break;
+            case Types.INTEGER:
+                ps.setInt(p, r.below(Integer.MAX_VALUE)); break;
+            case Types.BIGINT:
+                ps.setLong(p, r.next() >>> 1); break;
+            case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+                ps.setDouble(p, r.fraction() * 1e6); break;
+            case Types.DECIMAL: case Types.NUMERIC: {
+                int whole = Math.min(15, Math.max(0, size - c.digits));
+                long unscaled = (long)(r.fraction() * Math.pow(10, whole + Math.min(c.digits, 3)));
+                ps.setBigDecimal(p, BigDecimal.valueOf(unscaled, Math.min(c.digits, 3)));
+                break;
+            }
+            case Types.DATE:
+                ps.setDate(p, new Date(EPOCH + (long)(r.fraction() * SPAN) / 86400000L * 86400000L)); break;
+            case Types.TIME:
+                ps.setTime(p, new Time(EPOCH + r.below(86400) * 1000L)); break;
+            case Types.TIMESTAMP:
+                ps.setTimestamp(p, new Timestamp(EPOCH + (long)(r.fraction() * SPAN) / 1000 * 1000)); break;
+            case Types.CHAR: case Types.NCHAR:
+                ps.setString(p, text(r, Math.min(size, 255))); break;
+            case Types.BINARY: case Types.VARBINARY: case Types.LONGVARBINARY: case Types.BLOB: {
+                byte[] b = new byte[1 + r.below(Math.min(size, 64))];
+                for (int i = 0; i < b.length; i++) b[i] = (byte) r.next();
+                ps.setBytes(p, b);
+                break;
+            }
+            default:  // VARCHAR, CLOB and anything else that takes a string
+                ps.setString(p, text(r, 1 + r.below(Math.min(size, c.type == Types.CLOB || c.type == Types.LONGVARCHAR ? 200 : 32))));
+        }
+    }
+
+    // the rows [from, to) of the run
+    static class Rows implements BatchInsert.Rows {
+        List<Column> cols;
+        long row, to, base, seed;
+        Rng r = new Rng();
+
+        Rows(List<Column> cols, long from, long to, long base, long seed) {
+            this.cols = cols; this.row = from; this.to = to; this.base = base; this.seed = seed;
+        }
+
+        public void open() {}
+
+        public boolean next(PreparedStatement ps) throws SQLException {
+            if (row >= to) return false;
+            r.seed(seed, row);
+            for (int i = 0; i < cols.size(); i++)
+                set(ps, i+1, cols.get(i), r, row, base);
+            row++;
+            return true;
+        }
+
+        public void close() {}
+    }
+
+    // current max of the leading key column plus one, so generated keys do not collide with existing rows
+    static long base(Connection conn, String tbl, Column key) throws SQLException {
+        if (key == null) return 0;
+        Statement s = conn.createStatement();
+        try {
+            ResultSet rs = s.executeQuery("SELECT MAX("+key.name+") FROM "+tbl);
+            rs.next();
+            long base = 1;
+            switch (key.type) {
+                case Types.DATE:      if (rs.getDate(1) != null) base = (rs.getDate(1).getTime() - EPOCH) / 86400000L + 1; break;
+                case Types.TIMESTAMP: if (rs.getTimestamp(1) != null) base = (rs.getTimestamp(1).getTime() - EPOCH) / 1000 + 1; break;
+                case Types.CHAR: case Types.VARCHAR: case Types.NCHAR: case Types.NVARCHAR: case Types.LONGVARCHAR:
+                    String m = rs.getString(1);
+                    try { if (m != null) base = Long.parseLong(m.trim(), 36) + 1; }
+                    catch (NumberFormatException e) { throw new SQLException("cannot continue the keys of "+key.name+" after '"+m+"'"); }
+                    break;
+                default:              base = rs.getLong(1) + 1;
+            }
+            rs.close();
+            return base;
+        } finally {
+            try { s.close(); } catch(Exception e) {}
+        }
+    }
+
+    public static void run(Connection first, String tbl, long rows, int writers, OptionParser.ParsedArgs parsed) throws Exception {
+        long seed = Long.parseLong(parsed.val("seed"));
+        writers = (int) Math.max(1, Math.min(writers, rows));
+
+        List<Column> cols = columns(first, tbl);
+        if (cols.isEmpty()) throw new SQLException("no columns found for "+tbl+" (try 'upper')");
+        Column key = null;
+        StringBuilder names = new StringBuilder(), marks = new StringBuilder();
+        for (Column c : cols) {
+            if (c.key) key = c;
+            names.append(names.length() > 0 ? ", " : "").append(c.name);
+            marks.append(marks.length() > 0 ? ", ?" : "?");
+        }
+        String sql = "INSERT INTO "+tbl+" ("+names+") VALUES ("+marks+")";
+        long base = base(first, tbl, key);
+        if (parsed.is("verbose")) Main.out(sql+"; "+rows+" rows"+(key != null ? " with "+key.name+" from "+base : "")+" over "+writers+" writers");
+
+        Rows[] sources = new Rows[writers];
+        for (int i = 0; i < writers; i++)
+            sources[i] = new Rows(cols, rows*i/writers, rows*(i+1)/writers, base, seed);
+        BatchInsert b = BatchInsert.run(first, "generate", sql, sources, parsed);
+        b.finish(String.format("generated %d rows into %s over %d writers in %.3fs; %.1f rows/s",
+                b.rows, tbl, writers, b.secs, b.rows / b.secs), parsed);
+    }
+}
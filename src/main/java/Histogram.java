@@ -0,0 +1,76 @@
+/**
+ * Log-linear latency histogram in the style of HdrHistogram.  Values (nanoseconds) are counted in
+ * buckets that keep 3 significant digits over the whole long range, so recording is a couple of
+ * shifts and an array increment and histograms from several threads can simply be added together.
+ */
+public class Histogram {
+    static final int SUB_BITS = 11;                 // 2048 sub-buckets ~ 3 significant digits
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int HALF = SUB_COUNT / 2;
+
+    long[] counts = new long[(64 - SUB_BITS + 1) * HALF];
+    long total = 0;
+    long sum = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+
+    static int bucketOf(long v) { return Math.max(0, 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1)); }
+
+    static int indexOf(long v) {
+        int bucket = bucketOf(v);
+        int sub = (int)(v >>> bucket);
+        return bucket == 0 ? sub : (bucket + 1) * HALF + (sub - HALF);
+    }
+
+    // highest value that would be counted at index i
+    static long valueAt(int i) {
+        int bucket = i / HALF - 1;
+        int sub = i % HALF + HALF;
+        if (bucket < 0) return i;
+        return ((long)(sub + 1) << bucket) - 1;
+    }
+
+    public void record(long v) {
+        if (v < 0) v = 0;
+        counts[indexOf(v)]++;
+        total++;
+        sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+    }
+
+    public void add(Histogram h) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += h.counts[i];
+        total += h.total;
+        sum += h.sum;
+        min = Math.min(min, h.min);
+        max = Math.max(max, h.max);
+    }
+
+    public long count()  { return total; }
+    public long min()    { return total == 0 ? 0 : min; }
+    public long max()    { return max; }
+    public double mean() { return total == 0 ? 0 : (double)sum / total; }
+
+    // value at the given percentile (0-100); bucket resolution is capped at the exact max seen
+    public long percentile(double p) {
+        if (total == 0) return 0;
+        long want = Math.max(1, (long)Math.ceil(total * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= want) return Math.min(valueAt(i), max);
+        }
+        return max;
+    }
+
+    public static String us(long ns) { return String.format("%.1f", ns / 1000.0); }
+
+    // one line summary in microseconds
+    public String summary() {
+        return String.format("n=%d min=%s p50=%s p90=%s p99=%s p99.9=%s max=%s mean=%s (us)",
+                total, us(min()), us(percentile(50)), us(percentile(90)), us(percentile(99)),
+                us(percentile(99.9)), us(max()), us((long)mean()));
+    }
+}
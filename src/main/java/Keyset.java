@@ -0,0 +1,246 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * Keyset (seek) pagination.  Instead of numbering rows and skipping the first 'start' of them, a page
+ * is fetched with a predicate on the key of the last row seen, e.g. for keys a,b:
+ *
+ *   SELECT * FROM tbl WHERE (a > ?) OR (a = ? AND b > ?) ORDER BY a, b FETCH FIRST n ROWS ONLY
+ *
+ * so the server can seek into the index rather than read and discard every earlier row.  The key is
+ * the order-by column(s) (if given) followed by the primary key columns, which keeps it unique.  A null
+ * compares neither greater nor equal, so nullable key columns are refused rather than silently skipping
+ * their rows.  The REPL remembers the first and last key of the page shown per table/order-by for 'display next|prev'.
+ */
+public class Keyset {
+    String table;
+    String order;
+    List<String> keys;
+    int page;
+    Object[] firstKey;
+    Object[] lastKey;
+
+    static Map<String,Keyset> pages = new HashMap<String,Keyset>();
+    static Keyset current = null;
+
+    static String id(String tbl, String ord) { return tbl.toLowerCase()+"|"+(ord==null ? "" : ord.toLowerCase()); }
+
+    // order-by columns followed by any primary key columns not already among them
+    static List<String> keysFor(Connection conn, String tbl, String ord) throws SQLException {
+        List<String> keys = new ArrayList<String>();
+        if (ord != null) {
+            for (String c : ord.split(",")) {
+                c = c.trim();
+                if (c.length() == 0) continue;
+                if (c.contains(" ")) throw new SQLException("keyset pagination needs plain column names to order by, not '"+c+"'");
+                keys.add(c);
+            }
+        }
+        for (String pk : Main.primaryKeyColumns(conn, tbl)) {
+            boolean seen = false;
+            for (String k : keys) seen |= unqualified(k).equalsIgnoreCase(pk);
+            if (!seen) keys.add(pk);
+        }
+        return keys;
+    }
+
+    // the key columns the table declares nullable, from the metadata of an empty select of them
+    static List<String> nullable(Connection conn, String tbl, List<String> keys) throws SQLException {
+        List<String> nullable = new ArrayList<String>();
+        Statement s = conn.createStatement();
+        try {
+            ResultSet rs = s.executeQuery("SELECT "+Main.join(", ", keys)+" FROM "+tbl+" WHERE 1=0");
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 0; i < keys.size(); i++)
+                if (md.isNullable(i+1) == ResultSetMetaData.columnNullable) nullable.add(keys.get(i));
+            rs.close();
+        } finally {
+            try { s.close(); } catch(Exception e) {}
+        }
+        return nullable;
+    }
+
+    static String unqualified(String col) { return col.substring(col.lastIndexOf('.')+1); }
+
+    static String orderBy(List<String> keys, boolean qualified, boolean desc) {
+        StringBuilder sb = new StringBuilder();
+        for (String k : keys) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(qualified ? k : unqualified(k));
+            if (desc) sb.append(" DESC");
+        }
+        return sb.toString();
+    }
+
+    // (k1 > ?) OR (k1 = ? AND k2 > ?) OR ... ; '<' going backwards
+    static String predicate(List<String> keys, boolean forward) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) sb.append(" OR ");
+            sb.append('(');
+            for (int j = 0; j < i; j++)
+                sb.append(keys.get(j)).append(" = ? AND ");
+            sb.append(keys.get(i)).append(forward ? " > ?" : " < ?");
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The page of n rows after (or, going backwards, before) a key; without a key the first page.
+     * Going backwards the rows are read in descending key order and put back in ascending order.
+     */
+    static String query(Connection conn, String tbl, List<String> keys, int n, boolean seek, boolean forward) throws SQLException {
+        String nm = conn.getMetaData().getDriverName().toLowerCase();
+        String q = "SELECT * FROM "+tbl+(seek ? " WHERE "+predicate(keys, forward) : "")+" ORDER BY "+orderBy(keys, true, !forward);
+        if (nm.contains("oracle"))
+            q = "SELECT * FROM ( "+q+" ) WHERE ROWNUM <= "+n;
+        else if (nm.contains("mysql") || nm.contains("postgresql") || nm.contains("h2") || nm.contains("sqlite"))
+            q = q+" LIMIT "+n;
+        else
+            q = q+" OFFSET 0 ROWS FETCH NEXT "+n+" ROWS ONLY";
+        return forward ? q : "SELECT * FROM ( "+q+" ) p ORDER BY "+orderBy(keys, false, false);
+    }
+
+    static int bind(PreparedStatement ps, Object[] key) throws SQLException {
+        int p = 1;
+        for (int i = 0; i < key.length; i++)
+            for (int j = 0; j <= i; j++)
+                ps.setObject(p++, key[j]);
+        return p;
+    }
+
+    // key values given on the command line (-E), converted to the type of their column
+    static Object[] parseKey(Connection conn, String tbl, List<String> keys, String after) throws SQLException {
+        String[] vals = after.split(",", -1);
+        if (vals.length != keys.size()) Main.err("--after needs "+keys.size()+" comma separated value(s) for "+Main.join(",", keys));
+        Object[] key = new Object[vals.length];
+        Statement s = conn.createStatement();
+        try {
+            ResultSet rs = s.executeQuery("SELECT "+Main.join(", ", keys)+" FROM "+tbl+" WHERE 1=0");
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 0; i < vals.length; i++) {
+                switch (md.getColumnType(i+1)) {
+                    case Types.BIGINT: case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+                        key[i] = Long.valueOf(vals[i].trim()); break;
+                    case Types.DECIMAL: case Types.NUMERIC: case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+                        key[i] = new BigDecimal(vals[i].trim()); break;
+                    case Types.DATE: case Types.TIMESTAMP:
+                        key[i] = vals[i].trim().length() > 10 ? java.sql.Timestamp.valueOf(vals[i].trim()) : java.sql.Date.valueOf(vals[i].trim()); break;
+                    default:
+                        key[i] = vals[i];
+                }
+            }
+            rs.close();
+        } finally {
+            try { s.close(); } catch(Exception e) {}
+        }
+        return key;
+    }
+
+    static Object[] keyOf(CachedRowSet crs, List<String> keys) throws SQLException {
+        Object[] key = new Object[keys.size()];
+        for (int i = 0; i < key.length; i++)
+            key[i] = crs.getObject(unqualified(keys.get(i)));
+        return key;
+    }
+
+    static String keyString(Object[] key) {
+        StringBuilder sb = new StringBuilder();
+        for (Object o : key) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(o);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Run the page query and display it; the first and last keys of the page are picked up from a
+     * CachedRowSet copy of the (small) page before it is rendered.  Returns false for an empty page.
+     */
+    boolean show(Connection conn, String sql, Object[] key, OptionParser.ParsedArgs parsed) throws SQLException {
+        if (parsed.is("verbose") || parsed.is("dry-run")) Main.out(sql+(key == null ? "" : "  -- key "+keyString(key)));
+        long ts = System.nanoTime();
+        PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            if (parsed.has("fetch-size") && parsed.val("fetch-size").length()>0) ps.setFetchSize(parsed.valInt("fetch-size"));
+            if (key != null) bind(ps, key);
+            Main.timing.create = System.nanoTime()-ts;
+            Main.timing.start = System.nanoTime();
+            ResultSet rs = ps.executeQuery();
+            Main.timing.execute = System.nanoTime()-Main.timing.start;
+            CachedRowSet crs = RowSetProvider.newFactory().createCachedRowSet();
+            crs.populate(rs);
+            rs.close();
+            if (crs.size() == 0) {
+                Main.out("no more rows");
+                Main.timing = new Timing();
+                return false;
+            }
+            crs.first();
+            firstKey = keyOf(crs, keys);
+            crs.last();
+            lastKey = keyOf(crs, keys);
+            crs.beforeFirst();
+            Main.streamResultMem(crs, parsed);
+            crs.close();
+        } finally {
+            try { ps.close(); } catch(Exception e) {}
+        }
+        if (parsed.is("verbose")) Main.out("keys "+keyString(firstKey)+" .. "+keyString(lastKey));
+        Main.timed(sql);
+        return true;
+    }
+
+    static Keyset create(Connection conn, String tbl, String ord, int page) throws SQLException {
+        Keyset k = new Keyset();
+        k.table = tbl;
+        k.order = ord;
+        k.keys = keysFor(conn, tbl, ord);
+        k.page = page;
+        if (k.keys.isEmpty()) throw new SQLException("no primary key found for "+tbl+" (try 'upper'); give an order-by column for keyset pagination");
+        List<String> nullable = nullable(conn, tbl, k.keys);
+        if (!nullable.isEmpty())
+            throw new SQLException("keyset pagination cannot seek past nulls; "+Main.join(", ", nullable)+" of "+tbl+" can be null, order by NOT NULL columns");
+        return k;
+    }
+
+    // REPL 'display tbl [ord [first [end]]]' with keyset on; a page other than the first is found by offset once
+    public static void display(Connection conn, String tbl, String ord, int first, int end, OptionParser.ParsedArgs parsed) throws SQLException {
+        Keyset k = create(conn, tbl, ord, Math.max(1, end-first));
+        String sql = first > 1 ? Main.defaultQuery(conn, orderBy(k.keys, true, false), tbl, first, end)
+                               : query(conn, tbl, k.keys, k.page, false, true);
+        if (k.show(conn, sql, null, parsed)) {
+            pages.put(id(tbl, ord), k);
+            current = k;
+        }
+    }
+
+    // REPL 'display next|prev [tbl [ord]]': the page after the last or before the first key shown (of tbl/ord)
+    public static void page(Connection conn, boolean forward, String tbl, String ord, OptionParser.ParsedArgs parsed) throws SQLException {
+        Keyset k = tbl == null ? current : pages.get(id(tbl, ord));
+        if (k == null) { Main.out("display "+(tbl == null ? "a table" : tbl)+" with keyset on first"); return; }
+        current = k;
+        k.show(conn, query(conn, k.table, k.keys, k.page, true, forward), forward ? k.lastKey : k.firstKey, parsed);
+    }
+
+    // table mode with -E: the page following the given key
+    public static void after(Connection conn, String tbl, String ord, String after, int n, OptionParser.ParsedArgs parsed) throws SQLException {
+        Keyset k = create(conn, tbl, ord, n);
+        Object[] key = parseKey(conn, tbl, k.keys, after);
+        if (k.show(conn, query(conn, tbl, k.keys, n, true, true), key, parsed) && parsed.is("verbose"))
+            Main.out("next page: -E "+keyString(k.lastKey));
+    }
+}
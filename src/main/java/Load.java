@@ -0,0 +1,347 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Bulk load of field separated text ('load tbl file [writers]'), the format jdbcq writes: one row per
+ * line, fields split by --field-separator, an empty field is null, no quoting.  When the first line
+ * holds column names of the table those columns are loaded in that order and the line is skipped,
+ * otherwise the fields map to the table's columns in order.  jdbcq's default output is aligned, with
+ * fields padded with spaces to the column width; when the header or one of the first lines has a field
+ * ending in a space the file is taken to be aligned and trailing spaces are dropped from every field, so
+ * values that really end in spaces only load as they are from unaligned (-a) output.
+ *
+ * The file is split into one range per writer connection at line boundaries.  Each writer maps its
+ * range into memory a window at a time and parses fields straight from the mapped bytes: integers,
+ * decimals, dates, timestamps and booleans are converted without building a String per field or
+ * line, and the rows go through batched prepared inserts (--batch-size, --commit-every).
+ */
+public class Load {
+    static final int WINDOW = 64 * 1024 * 1024;
+    static final int SAMPLE = 100;  // lines looked at for padding
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int LONG = 0, DECIMAL = 1, DATE = 2, TIMESTAMP = 3, BOOLEAN = 4, BYTES = 5, STRING = 6;
+
+    static int kindOf(int type) {
+        switch (type) {
+            case Types.BIGINT: case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+                return LONG;
+            case Types.DECIMAL: case Types.NUMERIC:
+                return DECIMAL;
+            case Types.DATE:
+                return DATE;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            case Types.BIT: case Types.BOOLEAN:
+                return BOOLEAN;
+            case Types.BINARY: case Types.VARBINARY: case Types.LONGVARBINARY: case Types.BLOB:
+                return BYTES;
+            default:
+                return STRING;
+        }
+    }
+
+    // the lines starting in [pos, to) of the file, mapped a window at a time
+    static class Lines implements BatchInsert.Rows {
+        File file;
+        int[] kind;
+        int[] type;
+        byte[] sep;
+        boolean trim;  // aligned input: drop the padding after each field
+        long pos, to, size;
+        RandomAccessFile raf;
+        FileChannel ch;
+
+        MappedByteBuffer buf;  // the window mapped from pos; null when the next one has to be mapped
+        int len, line;         // its length and the offset of the next line in it
+        byte[] scratch = new byte[256];
+        char[] chars = new char[64];
+        Calendar cal = Calendar.getInstance();
+
+        Lines(File file, int[] type, byte[] sep, boolean trim, long from, long to) {
+            this.file = file; this.type = type; this.sep = sep; this.trim = trim; this.pos = from; this.to = to;
+            kind = new int[type.length];
+            for (int i = 0; i < type.length; i++) kind[i] = kindOf(type[i]);
+        }
+
+        // a field of digits (with an optional sign) as a long; Long.MIN_VALUE when it is something else
+        long digits(int s, int e) {
+            boolean neg = buf.get(s) == '-';
+            if (neg || buf.get(s) == '+') s++;
+            if (s >= e || e - s > 18) return Long.MIN_VALUE;
+            long v = 0;
+            for (int i = s; i < e; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) return Long.MIN_VALUE;
+                v = v*10 + d;
+            }
+            return neg ? -v : v;
+        }
+
+        int num(int s, int n) {
+            int v = 0;
+            for (int i = s; i < s+n; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) return -1;
+                v = v*10 + d;
+            }
+            return v;
+        }
+
+        String string(int s, int e) {
+            int n = e - s;
+            if (n > scratch.length) scratch = new byte[Math.max(n, scratch.length*2)];
+            buf.position(s);
+            buf.get(scratch, 0, n);
+            return new String(scratch, 0, n, UTF8);
+        }
+
+        // yyyy-mm-dd[ hh:mm:ss[.fffffffff]] in local time; null if the field is laid out differently
+        Timestamp timestamp(int s, int e, boolean dateOnly) {
+            int len = e - s;
+            if (len < 10 || buf.get(s+4) != '-' || buf.get(s+7) != '-') return null;
+            int y = num(s, 4), mo = num(s+5, 2), d = num(s+8, 2), h = 0, mi = 0, sec = 0, nanos = 0;
+            if (y < 0 || mo < 0 || d < 0) return null;
+            if (!dateOnly && len >= 19) {
+                if (buf.get(s+13) != ':' || buf.get(s+16) != ':') return null;
+                h = num(s+11, 2); mi = num(s+14, 2); sec = num(s+17, 2);
+                if (h < 0 || mi < 0 || sec < 0) return null;
+                if (len > 20 && buf.get(s+19) == '.') {
+                    int n = Math.min(9, len - 20);
+                    nanos = num(s+20, n);
+                    if (nanos < 0) return null;
+                    for (int i = n; i < 9; i++) nanos *= 10;
+                }
+            } else if (len != 10) {
+                return null;
+            }
+            cal.clear();
+            cal.set(y, mo-1, d, h, mi, sec);
+            Timestamp t = new Timestamp(cal.getTimeInMillis());
+            t.setNanos(nanos);
+            return t;
+        }
+
+        static int hex(int c) {
+            if (c >= '0' && c <= '9') return c - '0';
+            if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+            if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+            return -1;
+        }
+
+        void set(PreparedStatement ps, int i, int s, int e) throws SQLException {
+            int p = i + 1;
+            if (trim) while (e > s && buf.get(e-1) == ' ') e--;
+            if (s == e) { ps.setNull(p, type[i]); return; }
+            switch (kind[i]) {
+                case LONG: {
+                    long v = digits(s, e);
+                    if (v != Long.MIN_VALUE) { ps.setLong(p, v); return; }
+                    break;
+                }
+                case DECIMAL: {
+                    int n = e - s;
+                    if (n > chars.length) chars = new char[n];
+                    for (int j = 0; j < n; j++) chars[j] = (char) buf.get(s+j);
+                    try { ps.setBigDecimal(p, new BigDecimal(chars, 0, n)); return; }
+                    catch (NumberFormatException x) { break; }
+                }
+                case DATE:
+                case TIMESTAMP: {
+                    Timestamp t = timestamp(s, e, kind[i] == DATE);
+                    if (t == null) break;
+                    if (kind[i] == DATE) ps.setDate(p, new Date(t.getTime()));
+                    else ps.setTimestamp(p, t);
+                    return;
+                }
+                case BOOLEAN: {
+                    int c = buf.get(s);
+                    ps.setBoolean(p, c == '1' || c == 't' || c == 'T' || c == 'y' || c == 'Y');
+                    return;
+                }
+                case BYTES: {
+                    // hex, as --typed writes binary values; anything else (e.g. "(12B blob)") is loaded as null
+                    int n = e - s;
+                    byte[] b = (n & 1) == 0 ? new byte[n/2] : null;
+                    for (int j = 0; b != null && j < b.length; j++) {
+                        int hi = hex(buf.get(s+2*j)), lo = hex(buf.get(s+2*j+1));
+                        if (hi < 0 || lo < 0) b = null;
+                        else b[j] = (byte)(hi << 4 | lo);
+                    }
+                    if (b != null) ps.setBytes(p, b); else ps.setNull(p, type[i]);
+                    return;
+                }
+            }
+            ps.setString(p, string(s, e));
+        }
+
+        boolean sepAt(int i, int end) {
+            if (i + sep.length > end) return false;
+            for (int j = 0; j < sep.length; j++)
+                if (buf.get(i+j) != sep[j]) return false;
+            return true;
+        }
+
+        public void open() throws Exception {
+            raf = new RandomAccessFile(file, "r");
+            ch = raf.getChannel();
+            size = ch.size();
+        }
+
+        public boolean next(PreparedStatement ps) throws Exception {
+            while (true) {
+                if (buf == null) {
+                    if (pos >= to) return false;
+                    len = (int) Math.min(WINDOW, size - pos);
+                    buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                    line = 0;
+                }
+                if (pos + line >= to) {  // every line starting before 'to' is done
+                    pos += line;
+                    buf = null;
+                    continue;
+                }
+                int eol = line;
+                while (eol < len && buf.get(eol) != '\n') eol++;
+                if (eol == len && pos + len < size) {
+                    if (line == 0) throw new SQLException("line at byte "+pos+" is longer than "+WINDOW+" bytes");
+                    pos += line;  // the line continues past the window; map the next one from its start
+                    buf = null;
+                    continue;
+                }
+                int start = line, end = eol > line && buf.get(eol-1) == '\r' ? eol-1 : eol;
+                line = eol + 1;
+                if (end == start) continue;  // empty line
+                int f = 0, s = start;
+                for (int i = start; i <= end && f < kind.length; i++) {
+                    if (i == end || sepAt(i, end)) {
+                        set(ps, f++, s, i);
+                        i += sep.length - 1;
+                        s = i + 1;
+                    }
+                }
+                while (f < kind.length) ps.setNull(f+1, type[f++]);  // short line: the rest is null
+                return true;
+            }
+        }
+
+        public void close() {
+            buf = null;
+            if (raf != null) { try { raf.close(); } catch(Exception e) {} }
+        }
+    }
+
+    // offset of the first line starting at or after pos
+    static long lineStart(RandomAccessFile raf, long pos) throws Exception {
+        if (pos == 0) return 0;
+        raf.seek(pos - 1);
+        int c;
+        while ((c = raf.read()) != -1 && c != '\n') pos++;
+        return Math.min(pos, raf.length());
+    }
+
+    public static void run(Connection first, String tbl, String fn, int writers, OptionParser.ParsedArgs parsed) throws Exception {
+        String fieldSep = parsed.val("field-separator");
+        byte[] sep = fieldSep.getBytes(UTF8);
+        File file = new File(fn);
+        if (!file.canRead()) throw new SQLException("cannot read "+fn);
+        if (sep.length == 0) throw new SQLException("an empty field separator cannot be loaded");
+
+        // the table's columns, or those named by a header line
+        List<String> names = new ArrayList<String>();
+        int[] type;
+        long start = 0;
+        boolean trim;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Statement s = first.createStatement();
+            try {
+                ResultSet rs = s.executeQuery("SELECT * FROM "+tbl+" WHERE 1=0");
+                ResultSetMetaData md = rs.getMetaData();
+                List<String> all = new ArrayList<String>();
+                for (int i = 1; i <= md.getColumnCount(); i++) all.add(md.getColumnName(i));
+                rs.close();
+                String head = raf.length() > 0 ? new String(readLine(raf), UTF8) : "";
+                boolean header = head.length() > 0;
+                trim = padded(head, fieldSep);
+                for (String h : head.split(java.util.regex.Pattern.quote(fieldSep), -1)) {
+                    boolean found = false;
+                    for (String c : all) found |= c.equalsIgnoreCase(h.trim());
+                    header &= found;
+                    names.add(h.trim());
+                }
+                if (header) {
+                    start = raf.getFilePointer();
+                } else {
+                    names = all;
+                }
+                for (int i = 0; i < SAMPLE && !trim && raf.getFilePointer() < raf.length(); i++)
+                    trim = padded(new String(readLine(raf), UTF8), fieldSep);
+                rs = s.executeQuery("SELECT "+Main.join(", ", names)+" FROM "+tbl+" WHERE 1=0");
+                md = rs.getMetaData();
+                type = new int[md.getColumnCount()];
+                for (int i = 0; i < type.length; i++) type[i] = md.getColumnType(i+1);
+                rs.close();
+            } finally {
+                try { s.close(); } catch(Exception e) {}
+            }
+
+            long size = raf.length();
+            writers = (int) Math.max(1, Math.min(writers, (size - start) / (1024*1024) + 1));  // at least a MB each
+            long[] bounds = new long[writers+1];
+            bounds[0] = start;
+            bounds[writers] = size;
+            for (int i = 1; i < writers; i++)
+                bounds[i] = Math.max(bounds[i-1], lineStart(raf, start + (size - start) * i / writers));
+            String sql = "INSERT INTO "+tbl+" ("+Main.join(", ", names)+") VALUES ("+marks(names.size())+")";
+            if (parsed.is("verbose")) Main.out(sql+"; "+(size-start)+" bytes of "+fn+" over "+writers+" writers"+(start > 0 ? " (header skipped)" : "")+(trim ? " (aligned, fields trimmed)" : ""));
+
+            Lines[] sources = new Lines[writers];
+            for (int i = 0; i < writers; i++)
+                sources[i] = new Lines(file, type, sep, trim, bounds[i], bounds[i+1]);
+            BatchInsert b = BatchInsert.run(first, "load", sql, sources, parsed);
+            b.finish(String.format("loaded %d rows into %s from %s over %d writers in %.3fs; %.1f rows/s %.1fMB/s",
+                    b.rows, tbl, fn, writers, b.secs, b.rows / b.secs, (size - start) / b.secs / (1024*1024)), parsed);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static String marks(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) sb.append(i > 0 ? ", ?" : "?");
+        return sb.toString();
+    }
+
+    // a field of the line ends in a space, as when jdbcq pads the columns to align them
+    static boolean padded(String line, String fieldSep) {
+        for (String f : line.split(java.util.regex.Pattern.quote(fieldSep), -1))
+            if (f.endsWith(" ")) return true;
+        return false;
+    }
+
+    // the bytes of the first line (without the line end); leaves the file pointer at the next line
+    static byte[] readLine(RandomAccessFile raf) throws Exception {
+        java.io.ByteArrayOutputStream b = new java.io.ByteArrayOutputStream();
+        int c;
+        while ((c = raf.read()) != -1 && c != '\n') b.write(c);
+        byte[] line = b.toByteArray();
+        if (line.length > 0 && line[line.length-1] == '\r') line = java.util.Arrays.copyOf(line, line.length-1);
+        return line;
+    }
+}
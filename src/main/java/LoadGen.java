@@ -0,0 +1,104 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Closed loop load generator; runs the same sql from N connections, each thread issuing the next
+ * execution as soon as the previous one has been fully fetched.  Latencies are recorded per thread
+ * and merged afterwards so the measuring path is free of locks.
+ */
+public class LoadGen {
+
+    static class Worker extends Thread {
+        Connection conn;
+        String sql;
+        long iterations;
+        long deadline;
+        CountDownLatch start;
+        OptionParser.ParsedArgs parsed;
+        Histogram hist = new Histogram();
+        long rows = 0;
+        long errors = 0;
+        SQLException lastError = null;
+
+        Worker(int n, Connection conn, String sql, long iterations, long deadline, CountDownLatch start, OptionParser.ParsedArgs parsed) {
+            super("jdbcq-load-"+n);
+            this.conn = conn;
+            this.sql = sql;
+            this.iterations = iterations;
+            this.deadline = deadline;
+            this.start = start;
+            this.parsed = parsed;
+        }
+
+        public void run() {
+            try { start.await(); } catch (InterruptedException e) { return; }
+            for (long i = 0; i < iterations && System.nanoTime() < deadline; i++) {
+                long ts = System.nanoTime();
+                Statement stmt = null;
+                boolean ok = false;
+                try {
+                    stmt = Main.statement(conn, parsed);
+                    boolean isRS = stmt.execute(sql);
+                    while (isRS || stmt.getUpdateCount() > -1) {
+                        if (isRS) rows += Main.drain(stmt.getResultSet());
+                        isRS = stmt.getMoreResults();
+                    }
+                    hist.record(System.nanoTime() - ts);
+                    ok = true;
+                } catch (SQLException e) {
+                    errors++;
+                    lastError = e;
+                } finally {
+                    if (stmt != null) { try { stmt.close(); } catch(Exception e) {} }
+                    try { Main.streamDone(conn, ok); } catch(SQLException e) { errors++; lastError = e; }
+                }
+            }
+        }
+    }
+
+    public static void run(Connection first, String sql, OptionParser.ParsedArgs parsed) throws Exception {
+        int n = parsed.valInt("concurrency");
+        long iterations = parsed.has("iterations") ? Long.parseLong(parsed.val("iterations"))
+                                                   : parsed.has("duration") ? Long.MAX_VALUE : 100;
+        long duration = parsed.has("duration") ? (long)(Double.parseDouble(parsed.val("duration"))*1e9) : Long.MAX_VALUE/2;
+        if (n < 1) Main.err("concurrency must be at least 1");
+
+        // connections are opened up front (and serially) so connect cost is not part of the measurement
+        Connection[] conns = new Connection[n];
+        conns[0] = first;
+        try {
+            for (int i = 1; i < n; i++)
+                conns[i] = Main.getConn();
+
+            CountDownLatch start = new CountDownLatch(1);
+            long ts = System.nanoTime();
+            Worker[] workers = new Worker[n];
+            for (int i = 0; i < n; i++) {
+                workers[i] = new Worker(i, conns[i], sql, iterations, ts + duration, start, parsed);
+                workers[i].start();
+            }
+            start.countDown();
+            Histogram all = new Histogram();
+            long rows = 0, errors = 0;
+            SQLException lastError = null;
+            for (Worker w : workers) {
+                w.join();
+                all.add(w.hist);
+                rows += w.rows;
+                errors += w.errors;
+                if (w.lastError != null) lastError = w.lastError;
+            }
+            long elapsed = System.nanoTime() - ts;
+            double secs = elapsed / 1e9;
+            Main.out(String.format("%d connections, %d executions (%d rows) in %.3fs; %.1f executions/s, %.1f rows/s, %d errors",
+                    n, all.count(), rows, secs, all.count() / secs, rows / secs, errors));
+            Main.out("latency " + all.summary());
+            if (lastError != null) Main.out("last error - " + lastError.toString());
+        } finally {
+            for (int i = 1; i < n; i++)
+                if (conns[i] != null) { try { conns[i].close(); } catch(Exception e) {} }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * LOB dump mode (--lob-dir).  Binary columns (BLOB, BINARY, VARBINARY, LONGVARBINARY, which is also how
+ * postgres reports bytea) are read with getBinaryStream and character LOBs (CLOB, NCLOB, LONGVARCHAR) with
+ * getCharacterStream, and each value is streamed into its own file, <row>.<column>.bin or .txt, in a
+ * numbered subdirectory of the directory, a new one for every result so the statements of a repl or
+ * daemon session do not overwrite each other's files; the table shows the size and file instead of the value.  After the first read, binary
+ * values are moved with FileChannel.transferFrom so they never pass through a Java byte[]; characters have
+ * to be encoded, as UTF-8.
+ *
+ * Per column the number of values, bytes, MB/s (from asking for the stream until the file is closed)
+ * and the time to the first byte are kept and reported when the result is done.
+ */
+public class Lobs {
+    static final int NONE = 0, BINARY = 1, CHARS = 2;
+    static final int CHUNK = 64 * 1024;
+
+    static int lobKind(int type) {
+        switch (type) {
+            case Types.BLOB:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:  return BINARY;
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:   return CHARS;
+            default:                   return NONE;
+        }
+    }
+
+    static class Stats {
+        String name;
+        long values = 0, nulls = 0, bytes = 0, ns = 0;
+        Histogram ttfb = new Histogram();
+    }
+
+    File dir;
+    int[] col;
+    int[] kind;
+    Stats[] stats;
+    ByteBuffer buf = ByteBuffer.allocate(CHUNK);
+    CharBuffer chars = CharBuffer.allocate(CHUNK);
+    CharsetEncoder utf8 = java.nio.charset.Charset.forName("UTF-8").newEncoder();
+
+    public Lobs(ResultSetMetaData md, int[] col, String dir) throws SQLException {
+        this.col = col;
+        kind = new int[col.length];
+        stats = new Stats[col.length];
+        boolean any = false;
+        for (int i = 0; i < col.length; i++) {
+            kind[i] = lobKind(md.getColumnType(col[i]));
+            if (kind[i] == NONE) continue;
+            stats[i] = new Stats();
+            stats[i].name = md.getColumnName(col[i]);
+            any = true;
+        }
+        if (!any) return;
+        File base = new File(dir);
+        if (!base.isDirectory() && !base.mkdirs()) throw new SQLException("cannot create --lob-dir "+dir);
+        for (int k = 1; ; k++) {
+            this.dir = new File(base, String.valueOf(k));
+            if (this.dir.mkdir()) break;
+            if (!this.dir.exists()) throw new SQLException("cannot create "+this.dir+" in --lob-dir");
+        }
+    }
+
+    // capture the current row of rs into row 'row' of eles, dumping the LOB columns; 'n' numbers the files
+    public void captureRow(ResultSet rs, boolean[] applytx, int[][] limits, RowBuffer eles, int row, long n) throws SQLException {
+        for (int i = 0; i < col.length; i++) {
+            String s = kind[i] == NONE ? rs.getString(col[i]) : dump(rs, i, n);
+            Main.capture(limits, eles, row, i, applytx[i] ? Main.transform(s) : s);
+        }
+    }
+
+    String dump(ResultSet rs, int i, long n) throws SQLException {
+        Stats st = stats[i];
+        long start = System.nanoTime();
+        InputStream in = null;
+        Reader rd = null;
+        if (kind[i] == BINARY) in = rs.getBinaryStream(col[i]);
+        else rd = rs.getCharacterStream(col[i]);
+        if (in == null && rd == null) {
+            st.nulls++;
+            return null;
+        }
+        File f = new File(dir, n + "." + st.name.replaceAll("[^A-Za-z0-9_$-]", "_") + (kind[i] == BINARY ? ".bin" : ".txt"));
+        long size = 0;
+        try {
+            FileOutputStream os = new FileOutputStream(f);
+            try {
+                FileChannel fc = os.getChannel();
+                if (in != null) {
+                    ReadableByteChannel ch = Channels.newChannel(in);
+                    buf.clear();
+                    int got = ch.read(buf);
+                    st.ttfb.record(System.nanoTime() - start);
+                    if (got > 0) {
+                        buf.flip();
+                        while (buf.hasRemaining()) size += fc.write(buf);
+                        long moved;
+                        while ((moved = fc.transferFrom(ch, size, 1L << 30)) > 0) size += moved;
+                    }
+                    in.close();
+                } else {
+                    boolean first = true;
+                    chars.clear();
+                    while (true) {
+                        int got = rd.read(chars);
+                        if (first) { st.ttfb.record(System.nanoTime() - start); first = false; }
+                        chars.flip();
+                        CoderResult cr;
+                        do {
+                            buf.clear();
+                            cr = utf8.encode(chars, buf, got < 0);
+                            if (cr.isError()) cr.throwException();
+                            buf.flip();
+                            while (buf.hasRemaining()) size += fc.write(buf);
+                        } while (cr.isOverflow());
+                        chars.compact();
+                        if (got < 0) break;
+                    }
+                    buf.clear();
+                    utf8.flush(buf);
+                    buf.flip();
+                    while (buf.hasRemaining()) size += fc.write(buf);
+                    utf8.reset();
+                    rd.close();
+                }
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            throw new SQLException("writing "+st.name+" of row "+n+" to "+f+" failed - "+e.getMessage(), e);
+        }
+        st.ns += System.nanoTime() - start;
+        st.values++;
+        st.bytes += size;
+        return "(" + size + "B " + dir.getName() + File.separator + f.getName() + ")";
+    }
+
+    public String report(boolean timed) {
+        StringBuilder sb = new StringBuilder();
+        for (Stats st : stats) {
+            if (st == null) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format("lob %s dir=%s files=%d nulls=%d bytes=%d time=%.3fms %.1fMB/s",
+                    st.name, dir.getPath(), st.values, st.nulls, st.bytes, st.ns / 1e6, st.ns == 0 ? 0.0 : st.bytes / (1024.0*1024.0) / (st.ns / 1e9)));
+            if (timed && st.ttfb.count() > 0) sb.append("\nlob ").append(st.name).append(" first-byte ").append(st.ttfb.summary());
+        }
+        return sb.toString();
+    }
+}
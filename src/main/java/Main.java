@@ -1,20 +1,36 @@
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 public class Main {
 
     private static OptionParser.ParsedArgs parsed = null;
     private static HashMap<String,Object>  config = null;
+    static Timing timing = new Timing();
 
     public static void out(String s)    { System.out.println(s); }
     public static void outs(String s)   { System.out.print(s); }
-    public static void err(String s)    { out(s); System.exit(2); }
+    public static void err(String s)    { out(s); exit(2); }
+
+    // the daemon runs many invocations in one jvm, so there exit unwinds the invocation instead
+    static class Exit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        int rc;
+        Exit(int rc) { super("exit "+rc); this.rc = rc; }
+    }
+    static boolean daemon = false;
+    static Session pool = null;  // warm connections of the daemon
+    public static void exit(int rc) { if (daemon) throw new Exit(rc); System.exit(rc); }
 
     public static void streamMetadata(ResultSet rs, OptionParser.ParsedArgs parsed) throws SQLException {
         String fieldSep = parsed.val("field-separator");
@@ -26,7 +42,7 @@ public class Main {
         // put the metadata into memory
         String[] titles = "index\tlabel\tname\ttype#\ttype\twidth\tclass\tproperties (s=searchable,w=writable,r=readonly,n=nullable,o=nonnullable,^=case_sensitive,$=currency,+=auto_increment)".split("\t");
         int cols = titles.length;
-        String[][] eles = new String[rows][cols];
+        RowBuffer eles = new RowBuffer(rows, cols);
         int[][] limits = int2DArray(0, 2, cols);  // row 0=max length seen, 1=absolute column width limit
         limits[1] = intArray(132,cols);
 
@@ -68,7 +84,10 @@ public class Main {
     }
 
     public static String blobstr(ResultSet rs, int i) throws SQLException {
-        return String.format("(%dB blob)",(rs.getBlob(i)==null?0:rs.getBlob(i).length()));
+        Blob b = rs.getBlob(i);
+        long len = b==null ? 0 : b.length();
+        if (b!=null) { try { b.free(); } catch(SQLException e) {} catch(AbstractMethodError e) {} } // pre jdbc 4 drivers
+        return String.format("(%dB blob)",len);
     }
 
     private static String transformVal(String s) {
@@ -85,10 +104,8 @@ public class Main {
     }
 
     // update the max length seen along with the storing the value itself
-    public static void capture(int[][] limits, String[][] eles, int row, int column, Object val) {
-        eles[row][column] = safestr(val);
-        if (limits==null) return;
-        limits[0][column] = Math.max(eles[row][column].length(), limits[0][column]);
+    public static void capture(int[][] limits, RowBuffer eles, int row, int column, Object val) {
+        eles.set(row, column, val==null || val instanceof String ? (String)val : val.toString(), limits==null ? null : limits[0]);
     }
 
     public static int padAmt(String s, int n) {
@@ -97,7 +114,6 @@ public class Main {
         return n-len;
     }
 
-    private static char[] spaces;
     private static Pattern whiteout = Pattern.compile("\\s");
 
     public static String niceify(String s, int max, boolean leaveWhitespace) {
@@ -107,27 +123,37 @@ public class Main {
     }
 
     // output the rows
-    public static void flush(int[][] limits, String[][] eles, int rows, boolean align, boolean rightPad, boolean leaveWhitespace, String fieldSep) {
-        StringBuffer sb = new StringBuffer();
-        String rowSep = "";
+    public static void flush(int[][] limits, RowBuffer eles, int rows, boolean align, boolean rightPad, boolean leaveWhitespace, String fieldSep) {
+        long ts = System.nanoTime();
+        long alloc = timing.allocated();
+        Renderer r = Renderer.stdout();
+        long output = r.outputNs;
         for(int j=0;j<rows;j++) {
-            sb.append(rowSep);
-            String[] row = eles[j];
-            String colSep = "";
-            for(int i=0;i<row.length;i++) {
-                sb.append(colSep);
-                if (align&&!rightPad) sb.append(spaces,0, padAmt(row[i], Math.min(limits[1][i],limits[0][i]))); // limits[0] is desired column width
-                sb.append(niceify(row[i],limits[1][i],leaveWhitespace)); // limits[1] is max column width
-                if (align&&rightPad) sb.append(spaces,0, padAmt(row[i], Math.min(limits[1][i],limits[0][i]))); // limits[0] is desired column width
-                colSep = fieldSep;
+            if (j>0) r.append('\n');
+            for(int i=0;i<eles.cols();i++) {
+                if (i>0) r.append(fieldSep);
+                int width = align ? Math.min(limits[1][i],limits[0][i]) : 0; // limits[0] is desired column width
+                r.cell(eles.arena, eles.offset(j,i), eles.length(j,i), limits[1][i], width, rightPad, leaveWhitespace); // limits[1] is max column width
             }
-            rowSep = "\n";
         }
-        out(sb.toString());
+        r.append('\n');
+        r.flush();
+        output = r.outputNs-output;
+        timing.render += System.nanoTime()-ts-output;
+        timing.output += output;
+        timing.renderAlloc += timing.allocated()-alloc;
     }
 
     public static void streamResultMem(ResultSet rs, OptionParser.ParsedArgs parsed) throws SQLException
     {
+        if (parsed.has("format")) {
+            Formats.stream(rs, parsed);
+            return;
+        }
+        if (parsed.has("pipeline")) {
+            Pipeline.stream(rs, parsed);
+            return;
+        }
         ResultSetMetaData md = rs.getMetaData();
         String fieldSep = parsed.val("field-separator");
         int[] col = columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-" + md.getColumnCount());
@@ -139,43 +165,99 @@ public class Main {
         int nAtAtime = Integer.parseInt(parsed.val("buffer"));
 
         // stream the result in memory for the first nAtAtime rows and determine 'desired' column width from them.
-        String[][] eles = new String[nAtAtime][col.length];
+        RowBuffer eles = new RowBuffer(nAtAtime, col.length);
         int[][] limits = int2DArray(0, 2, col.length);  // row 0=max length seen, 1=absolute column width limit
         limits[1] = intArray(truncateAt,col.length);
         int[][] findLimits = limits;
 
         // put the column titles in mem and capture more col info
         int row = 0;
-        boolean[] isBlob = new boolean[col.length];
-        for (int i=0; i<col.length; i++) {
-            int c = col[i];
-            isBlob[i] = md.getColumnTypeName(c).toUpperCase() == "BLOB";
-            capture(findLimits,eles,row,i,md.getColumnName(c));
-        }
+        boolean[] isBlob = blobColumns(md, col);
+        for (int i=0; i<col.length; i++)
+            capture(findLimits,eles,row,i,md.getColumnName(col[i]));
+
+        // with --lob-dir the LOB columns are streamed to files; otherwise with --typed the rows are decoded
+        // into typed column buffers and turned into text just before each flush
+        Lobs lobs = parsed.has("lob-dir") ? new Lobs(md, col, parsed.val("lob-dir")) : null;
+        TypedColumns typed = lobs==null && parsed.is("typed") ? new TypedColumns(md, col, nAtAtime) : null;
 
         // now do the rows of the resultset
         int total = 0;
         row++;
-        long ts = System.currentTimeMillis();
+        int from = row;
+        long ts = System.nanoTime();
+        long alloc = timing.allocated();
         while (rs.next()) {
+            if (total==0) timing.firstRow = System.nanoTime()-timing.start;
+            if (lobs!=null) {
+                lobs.captureRow(rs,applytx,findLimits,eles,row,total+1);
+            } else if (typed!=null) {
+                typed.read(rs, row);
+            } else {
+                captureRow(rs,col,isBlob,applytx,findLimits,eles,row);
+            }
+            total++;
+            row++;
             if(row>=nAtAtime) {
+                timing.fetch += System.nanoTime()-ts;
+                timing.fetchAlloc += timing.allocated()-alloc;
+                if (typed!=null) renderTyped(typed,eles,from,row,findLimits,applytx);
                 flush(limits,eles,row,align,rightPad,leave,fieldSep);
-                row = 0;
+                eles.clear();
+                row = from = 0;
                 findLimits = null; // stop looking for limits after the first flush
+                ts = System.nanoTime();
+                alloc = timing.allocated();
             }
-            for(int i=0; i<col.length; i++) {
-                int c = col[i];
-                String s = isBlob[i] ? blobstr(rs, c) : rs.getString(c);
-                s = applytx[i] ? transform(s) : s;
-                capture(findLimits,eles,row,i,s);
+        }
+        timing.fetch += System.nanoTime()-ts;
+        timing.fetchAlloc += timing.allocated()-alloc;
+        if (typed!=null) renderTyped(typed,eles,from,row,findLimits,applytx);
+        if (row>0) flush(limits,eles,row,align,rightPad,leave,fieldSep);
+        timing.rows += total;
+        if (typed!=null && parsed.is("timed")) out(typed.report());
+        if (lobs!=null) out(lobs.report(parsed.is("timed")));
+    }
+
+    public static boolean[] blobColumns(ResultSetMetaData md, int[] col) throws SQLException {
+        boolean[] isBlob = new boolean[col.length];
+        for (int i=0; i<col.length; i++)
+            isBlob[i] = md.getColumnType(col[i]) == Types.BLOB;
+        return isBlob;
+    }
+
+    // capture the current row of rs as text into row 'row' of eles
+    public static void captureRow(ResultSet rs, int[] col, boolean[] isBlob, boolean[] applytx, int[][] limits, RowBuffer eles, int row) throws SQLException {
+        for(int i=0; i<col.length; i++) {
+            int c = col[i];
+            String s = isBlob[i] ? blobstr(rs, c) : rs.getString(c);
+            s = applytx[i] ? transform(s) : s;
+            capture(limits,eles,row,i,s);
+        }
+    }
+
+    static void renderTyped(TypedColumns typed, RowBuffer eles, int from, int to, int[][] limits, boolean[] applytx) {
+        long ts = System.nanoTime();
+        long alloc = timing.allocated();
+        typed.render(eles, from, to, limits, applytx);
+        timing.render += System.nanoTime()-ts;
+        timing.renderAlloc += timing.allocated()-alloc;
+    }
+
+    // fetch every column of every row as a string (same access pattern as streamResultMem) without rendering
+    public static int drain(ResultSet rs) throws SQLException {
+        int cols = rs.getMetaData().getColumnCount();
+        int total = 0;
+        try {
+            while (rs.next()) {
+                for (int c = 1; c <= cols; c++)
+                    rs.getString(c);
+                total++;
             }
-            total++;
-            row++;
+        } finally {
+            rs.close();
         }
-        flush(limits,eles,row,align,rightPad,leave,fieldSep);
-        long te = System.currentTimeMillis();
-        long tdiff = te-ts;
-        if (parsed.is("timed")) out(total+" accessed in "+tdiff+"ms");
+        return total;
     }
 
     public static int[] toIntArray(List<Integer> l) {
@@ -208,9 +290,13 @@ public class Main {
         return toIntArray(a);
     }
 
-    public static Connection getConn() throws Exception
+    public static Connection getConn() throws Exception { return getConn(parsed.val("source")); }
+
+    private static ConcurrentMap<String,Driver> drivers = new ConcurrentHashMap<String,Driver>();  // driver instances made so far; getConn runs on several threads
+
+    public static Connection getConn(String source) throws Exception
     {
-        long ts = System.currentTimeMillis();
+        long ts = System.nanoTime();
         String driver = parsed.val("jdbc");
         String dbURL = parsed.val("db");
         Properties p = new Properties();
@@ -218,10 +304,10 @@ public class Main {
         if (parsed.has("user")) p.put("user", parsed.val("user"));
         if (parsed.has("password")) p.put("password", parsed.val("password"));
 
-        if (parsed.has("source") && config!=null) {
+        if (source!=null && config()!=null) {
             try {
                 Map src = (Map)config.get("sources");
-                Map<String,String> s = (Map<String,String>)src.get(parsed.val("source"));
+                Map<String,String> s = (Map<String,String>)src.get(source);
                 for(Map.Entry<String,String> e : s.entrySet()) {
                     if (e.getKey().equals("url"))
                         dbURL = e.getValue();
@@ -231,27 +317,107 @@ public class Main {
                         p.put(e.getKey(),e.getValue());
                 }
             } catch(Exception e) {
-                err("failed to find source '"+parsed.val("source")+"' in jdbcq.conf file");
+                err("failed to find source '"+source+"' in jdbcq.conf file");
             }
         }
 
         if (driver == null) driver = driverOf(dbURL);
+        if (parsed.is("stream")) streamProperties(dbURL, p);
         if (parsed.is("verbose"))
             out("connecting "+driver+" to "+dbURL+" with properties "+p.toString());
 
-        Class.forName(driver).newInstance();
-        Connection c = DriverManager.getConnection(dbURL, p);
+        // connect through the driver itself; DriverManager would first load every driver in the fat jar
+        Driver d = drivers.get(driver);
+        if (d==null) {
+            drivers.putIfAbsent(driver, (Driver)Class.forName(driver).newInstance());
+            d = drivers.get(driver);
+        }
+        Connection c = d.connect(dbURL, p);
+        if (c==null) c = DriverManager.getConnection(dbURL, p);  // url not for this driver; let DriverManager pick
         if (c!=null && (parsed.is("verbose") || parsed.is("interactive")))
             out(driverInfo(c.getMetaData()));
-        if (parsed.is("timed")) {
-            long te = System.currentTimeMillis();
-            out("connection obtained in "+(te-ts)+"ms");
-        }
+        timing.connect = System.nanoTime()-ts;
         parsed.opts.put("db",dbURL);
         return c;
     }
 
 
+    // forward only, read only statement with the fetch options applied
+    public static Statement statement(Connection conn, OptionParser.ParsedArgs parsed) throws SQLException {
+        return fetchOptions(conn, conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY), parsed);
+    }
+
+    public static Statement fetchOptions(Connection conn, Statement stmt, OptionParser.ParsedArgs parsed) throws SQLException {
+        if (parsed.is("1-row")) stmt.setFetchSize(Integer.MIN_VALUE);
+        else if (parsed.is("stream")) streamStatement(conn, stmt);
+        else if (parsed.has("fetch-size") && parsed.val("fetch-size").length()>0) stmt.setFetchSize(parsed.valInt("fetch-size"));
+        return stmt;
+    }
+
+    // connections streamTransaction switched out of autocommit; streamDone switches them back
+    private static final Set<Connection> streamTx = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Connection,Boolean>()));
+
+    public static int streamFetchSize() {
+        return parsed.has("fetch-size") && parsed.val("fetch-size").length()>0 ? parsed.valInt("fetch-size") : parsed.valInt("buffer");
+    }
+
+    // connection properties drivers need to be told up front in order to stream
+    public static void streamProperties(String url, Properties p) {
+        url = url.toLowerCase();
+        if (url.startsWith("jdbc:sqlserver:"))
+            p.put("responseBuffering","adaptive");  // microsoft sqljdbc, otherwise the whole result is read on execute
+        else if (url.contains("oracle"))
+            p.put("defaultRowPrefetch",""+streamFetchSize());
+    }
+
+    // per statement settings to keep drivers from materializing the whole result set in memory
+    public static void streamStatement(Connection conn, Statement stmt) throws SQLException {
+        String nm = conn.getMetaData().getDriverName().toLowerCase();
+        String url = safestr(conn.getMetaData().getURL()).toLowerCase();
+        if (nm.contains("mysql") && !url.contains("usecursorfetch=true")) {
+            stmt.setFetchSize(Integer.MIN_VALUE);  // row by row streaming; with useCursorFetch the fetch size is honoured
+        } else {
+            streamTransaction(conn);
+            stmt.setFetchSize(streamFetchSize());
+        }
+    }
+
+    // postgres only uses a cursor (and the fetch size) inside a transaction
+    public static void streamTransaction(Connection conn) throws SQLException {
+        if (conn.getMetaData().getDriverName().toLowerCase().contains("postgresql") && conn.getAutoCommit()) {
+            conn.setAutoCommit(false);
+            streamTx.add(conn);
+        }
+    }
+
+    // end the transaction streamTransaction started on conn, if any, and go back to autocommit; called from
+    // a finally by everyone who applies the fetch options, with ok false when the statement failed (rollback)
+    public static void streamDone(Connection conn, boolean ok) throws SQLException {
+        if (conn == null || !streamTx.remove(conn)) return;
+        SQLException failed = null;
+        try {
+            if (ok) conn.commit();
+            else conn.rollback();
+        } catch (SQLException e) {
+            failed = e;
+        }
+        try { conn.setAutoCommit(true); } catch (SQLException e) { if (failed == null) failed = e; }
+        if (failed != null && ok) throw failed;  // on the error path the statement's own exception is the one to report
+    }
+
+    public static void resetPeakHeap() {
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP) p.resetPeakUsage();
+    }
+
+    // sum of the peak usage of the heap pools since the last resetPeakHeap()
+    public static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP) peak += p.getPeakUsage().getUsed();
+        return peak;
+    }
+
     public static String driverOf(String url) {
         url = url.toLowerCase();
         String d = "oracle.jdbc.OracleDriver";  // default oracle
@@ -265,6 +431,14 @@ public class Main {
             d = "org.apache.cassandra.cql.jdbc.CassandraDriver";
         } else if (url.contains("mongo")) {
             d = "mongodb.jdbc.MongoDriver";
+        } else if (url.startsWith("jdbc:h2:")) {
+            d = "org.h2.Driver";
+        } else if (url.startsWith("jdbc:derby://")) {
+            d = "org.apache.derby.jdbc.ClientDriver";
+        } else if (url.startsWith("jdbc:derby:")) {
+            d = "org.apache.derby.jdbc.EmbeddedDriver";
+        } else if (url.startsWith("jdbc:sqlite:")) {
+            d = "org.sqlite.JDBC";
         }
         return d;
     }
@@ -281,6 +455,17 @@ public class Main {
         return sb.toString();
     }
 
+    private static boolean configLoaded = false;
+
+    // jdbcq.conf, read the first time a source is looked up so runs without one never load the yaml parser
+    static synchronized HashMap<String,Object> config() {  // the Diff readers call getConn at the same time
+        if (!configLoaded) {
+            configLoaded = true;
+            loadConfig();
+        }
+        return config;
+    }
+
     public static void loadConfig() {
         boolean foundit = false;
         File f = null;
@@ -381,6 +566,29 @@ public class Main {
         return join(",",Arrays.asList(ar));
     }
 
+    // split a [catalog-or-schema.]table name into {catalog, schema, table} for DatabaseMetaData calls
+    public static String[] tableSpec(Connection conn, String tbl) throws SQLException {
+        String[] spec = (parsed.is("upper") ? tbl.toUpperCase() : tbl).split("\\.");
+        String qualifier = spec.length>1 ? spec[spec.length-2] : null;
+        if (conn.getMetaData().supportsCatalogsInTableDefinitions())
+            return new String[]{qualifier!=null ? qualifier : parsed.val("catalog"), null, spec[spec.length-1]};
+        return new String[]{parsed.val("catalog"), qualifier, spec[spec.length-1]};
+    }
+
+    // primary key column names of the table in key sequence order
+    public static List<String> primaryKeyColumns(Connection conn, String tbl) throws SQLException {
+        String[] spec = tableSpec(conn, tbl);
+        ResultSet rs = conn.getMetaData().getPrimaryKeys(spec[0], spec[1], spec[2]);
+        TreeMap<Integer,String> keys = new TreeMap<Integer,String>();
+        try {
+            while (rs.next())
+                keys.put(rs.getInt(5), rs.getString(4));
+        } finally {
+            rs.close();
+        }
+        return new ArrayList<String>(keys.values());
+    }
+
     public static String idxtype2str(int v) {
         String s = "unk";
         if (v==DatabaseMetaData.tableIndexStatistic)
@@ -398,6 +606,28 @@ public class Main {
         return (o==null) ? "" : o.toString();
     }
 
+    public static String jsonStr(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length()+2);
+        sb.append('"');
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c=='"' || c=='\\') sb.append('\\').append(c);
+            else if (c=='\n') sb.append("\\n");
+            else if (c=='\r') sb.append("\\r");
+            else if (c=='\t') sb.append("\\t");
+            else if (c<0x20) sb.append(String.format("\\u%04x",(int)c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    // emit (and reset) the timing record of the statement just completed
+    public static void timed(String what) {
+        if (parsed.is("timed")) out(parsed.is("json-timing") ? timing.json(what) : timing.line());
+        timing = new Timing();
+    }
+
     public static String idxToString(ResultSet rs) throws SQLException {
         int[] cols = columnsFor("1-"+rs.getMetaData().getColumnCount());
         //if (true) return resultString(rs,cols,null,999999);
@@ -426,125 +656,217 @@ public class Main {
         return applytx;
     }
 
+    public static OptionParser options() {
+        OptionParser o = new OptionParser();
+        o.add_desc("Usage: jdbcq [-tn] [-c col_spec] [-q sql-query] table order-by [start [end]]\n\n" +
+                "Executes a 'select *' from the specified table returning the first 10 rows. If provided,\n" +
+                "'start' determines the starting row_number().  'end' can be used to indicate the terminating\n" +
+                "row_number().  By default all columns are output unless the '-c' option is used.  Columns\n" +
+                "are identified by their ordinal number and may be specified via a range (e.g. 5-8) or\n" +
+                "or individually, separated by a comma (e.g. 11,5-8,2).  The '-t' is used to time the\n" +
+                "query and subsequent access of the results without displaying them.  The default query\n" +
+                "can be overridden with the '-q' option, in which case table,order-by,start and end arguments\n" +
+                "are ignored.  Displaying only the meta-data (no results) associated with the query\n" +
+                "is achieved by using the '-n' option.  Quoting order-by and appending DESC will result\n" +
+                "in a descending sort order. E.g. jdbcq productsubmissions \"submissionid DESC\" -c 1,2");
+        o.add_option('A', "lob-dir", null, String.class, "stream BLOB, CLOB and binary values to one file per row and column in this directory and report LOB MB/s; -t adds time to first byte.");
+        o.add_option('a', "dont-align", null, Boolean.class, "disable column alignment.");
+        o.add_option('B', "batch-size", "1000", String.class, "rows per executeBatch for the generate and load commands.");
+        o.add_option('b', "buffer", "1000", String.class, "buffer this many rows before displaying.");
+        o.add_option('c', "columns", null, String.class, "column numbers to display.");
+        o.add_option('C', "concurrency", null, String.class, "run the query from this many connections in a closed loop and report latency percentiles.");
+        o.add_option('d', "db", null, String.class, "db url connection string");
+        o.add_option('D', "duration", null, String.class, "stop the concurrency run after this many seconds.");
+        o.add_option('E', "after", null, String.class, "keyset pagination: show the rows following this (comma separated) key value in order-by then primary key order.");
+        o.add_option('e', "format", null, String.class, "write rows as they are fetched as csv, jsonl, binary or an arrow ipc file instead of a table (to -o or stdout).");
+        o.add_option('F', "fetch-size", null, String.class, "number of rows the driver should fetch per round trip (Statement.setFetchSize).");
+        o.add_option('f', "field-separator", "\t", String.class, "character(s) to use to separate each field.");
+        o.add_option('G', "crawl", null, String.class, "fetch columns, keys and indexes of every table of this schema (catalog) over -C connections as JSON lines (see -o).");
+        o.add_option('g', "right-align", null, Boolean.class, "align column text to the right.");
+        o.add_option('i', "interactive", null, Boolean.class, "run in repl mode.");
+        o.add_option('H', "checksum-every", null, String.class, "with --diff only print a checksum per source of every this many rows; works with a single source too.");
+        o.add_option('I', "iterations", null, String.class, "number of executions per connection for --concurrency (default 100), per source for --compare (default 10) or per fetch size for --sweep (default 3).");
+        o.add_option('J', "json-timing", null, Boolean.class, "emit the -t timing record as a JSON object.");
+        o.add_option('j', "jdbc", null, String.class, "use a specific jdbc driver.");
+        o.add_option('k', "catalog", null, String.class, "specify a particular catalog name for schema queries");
+        o.add_option('K', "compare", null, String.class, "comma separated jdbcq.conf sources to run the -q query against and compare.");
+        o.add_option('L', "cache-ttl", null, String.class, "seconds metadata (show, -m) stays cached per source; 0 disables the cache. 300 in the repl, the daemon or with --cache-file, else 0.");
+        o.add_option('l', "limit", "100", String.class, "maximum number of characters to display per field.");
+        o.add_option('M', "cache-file", null, String.class, "keep the metadata cache of every source in this file between runs.");
+        o.add_option('m', "metadata", null, Boolean.class, "db metadata mode.");
+        o.add_option('N', "rate", null, String.class, "arrivals per second for --replay, evenly spaced or poisson:N for random gaps.");
+        o.add_option('n', "dry-run", null, Boolean.class, "run the sql and display query metadata.");
+        o.add_option('O', "commit-every", "10000", String.class, "rows per commit for the generate and load commands.");
+        o.add_option('o', "output", null, String.class, "file name (prefix) to write --export partitions, the --crawl snapshot or --format output to; stdout if not given.");
+        o.add_option('P', "pipeline", null, String.class, "fetch rows on one thread and render them on another through this many --buffer sized batches; -t reports the stalls.");
+        o.add_option('p', "password", "user", String.class, "password for the db login.");
+        o.add_option('Q', "daemon", null, String.class, "serve invocations of the jdbcq Client on this loopback port (0 picks one) with warm connections; see ~/.jdbcq.daemon.");
+        o.add_option('q', "query", null, String.class, "execute the given SQL instead of the default.");
+        o.add_option('R', "replay", null, String.class, "replay the query/params/think directives of this workload file at --rate over -C connections (default 8) for -D seconds (default 10) or -I arrivals.");
+        o.add_option('r', "1-row", null, Boolean.class, "fetch one row at a time; careful locks will *not* be released until entire statement is complete!");
+        o.add_option('S', "sweep", null, String.class, "run the -q query once per comma separated fetch size (e.g. 1,10,100,1000,10000) and compare.");
+        o.add_option('s', "source", null, String.class, "name of source to use (loaded from jdbcq.conf file)");
+        o.add_option('t', "timed", null, Boolean.class, "time the access without displaying the results.");
+        o.add_option('u', "user", "user", String.class, "user name for the db login.");
+        o.add_option('U', "diff", null, String.class, "run the ordered -q query on these two comma separated jdbcq.conf sources and compare the rows as they stream.");
+        o.add_option('V', "seed", "42", String.class, "random seed for the generate command; the same seed generates the same rows.");
+        o.add_option('v', "verbose", null, Boolean.class, "output informational messages.");
+        o.add_option('W', "warmup", "3", String.class, "number of unmeasured warmup iterations per source for --compare or per fetch size for --sweep.");
+        o.add_option('w', "leave-whitespace", "false", Boolean.class, "dont filter whitespace from output.");
+        o.add_option('x', "transform", null, String.class, "apply transform on a columns' field values; output is of the form timeToriginal_size+transformed_size?size_delta");
+        o.add_option('Z', "compress", null, String.class, "compress --format output with gzip, zstd or lz4 on a background thread.");
+        o.add_option('z', "stream", null, Boolean.class, "apply driver specific settings to stream large results instead of materializing them; -t reports the peak heap.");
+        o.add_option('Y', "typed", null, Boolean.class, "read columns with the getter matching their type (getLong, getTimestamp, ...) instead of getString; -t reports decode time per getter.");
+        o.add_option('X', "export", null, String.class, "export the table in this many primary key ranges read in parallel (see -C and -o).");
+        o.add_option('y', "upper", "false", Boolean.class, "treat metadata requests only in uppercase.");
+        return o;
+    }
+
     public static void main(String[] args)
+    {
+        int rc = run(args);
+        if (rc!=0) System.exit(rc);
+    }
+
+    // one invocation; returns the exit code
+    public static int run(String[] args)
     {
         Connection conn = null;
         Statement stmt = null;
         ResultSet rs = null;
         try {
-            OptionParser o = new OptionParser();
-            o.add_desc("Usage: jdbcq [-tn] [-c col_spec] [-q sql-query] table order-by [start [end]]\n\n" +
-                    "Executes a 'select *' from the specified table returning the first 10 rows. If provided,\n" +
-                    "'start' determines the starting row_number().  'end' can be used to indicate the terminating\n" +
-                    "row_number().  By default all columns are output unless the '-c' option is used.  Columns\n" +
-                    "are identified by their ordinal number and may be specified via a range (e.g. 5-8) or\n" +
-                    "or individually, separated by a comma (e.g. 11,5-8,2).  The '-t' is used to time the\n" +
-                    "query and subsequent access of the results without displaying them.  The default query\n" +
-                    "can be overridden with the '-q' option, in which case table,order-by,start and end arguments\n" +
-                    "are ignored.  Displaying only the meta-data (no results) associated with the query\n" +
-                    "is achieved by using the '-n' option.  Quoting order-by and appending DESC will result\n" +
-                    "in a descending sort order. E.g. jdbcq productsubmissions \"submissionid DESC\" -c 1,2");
-            o.add_option('a', "dont-align", null, Boolean.class, "disable column alignment.");
-            o.add_option('b', "buffer", "1000", String.class, "buffer this many rows before displaying.");
-            o.add_option('c', "columns", null, String.class, "column numbers to display.");
-            o.add_option('d', "db", null, String.class, "db url connection string");
-            o.add_option('f', "field-separator", "\t", String.class, "character(s) to use to separate each field.");
-            o.add_option('g', "right-align", null, Boolean.class, "align column text to the right.");
-            o.add_option('i', "interactive", null, Boolean.class, "run in repl mode.");
-            o.add_option('j', "jdbc", null, String.class, "use a specific jdbc driver.");
-            o.add_option('k', "catalog", null, String.class, "specify a particular catalog name for schema queries");
-            o.add_option('l', "limit", "100", String.class, "maximum number of characters to display per field.");
-            o.add_option('m', "metadata", null, Boolean.class, "db metadata mode.");
-            o.add_option('n', "dry-run", null, Boolean.class, "run the sql and display query metadata.");
-            o.add_option('p', "password", "user", String.class, "password for the db login.");
-            o.add_option('q', "query", null, String.class, "execute the given SQL instead of the default.");
-            o.add_option('r', "1-row", null, Boolean.class, "fetch one row at a time; careful locks will *not* be released until entire statement is complete!");
-            o.add_option('s', "source", null, String.class, "name of source to use (loaded from jdbcq.conf file)");
-            o.add_option('t', "timed", null, Boolean.class, "time the access without displaying the results.");
-            o.add_option('u', "user", "user", String.class, "user name for the db login.");
-            o.add_option('v', "verbose", null, Boolean.class, "output informational messages.");
-            o.add_option('w', "leave-whitespace", "false", Boolean.class, "dont filter whitespace from output.");
-            o.add_option('x', "transform", null, String.class, "apply transform on a columns' field values; output is of the form timeToriginal_size+transformed_size?size_delta");
-            o.add_option('y', "upper", "false", Boolean.class, "treat metadata requests only in uppercase.");
+            OptionParser o = options();
             try {
                 parsed = o.parse_args(args);
             } catch(OptionParser.OptException e) {
                 out("Bad option; use -h for help");
-                System.exit(1);
+                return 1;
+            }
+            timing = new Timing();
+            if (parsed.has("daemon")) {
+                if (daemon) err("already running as the daemon");
+                Daemon.serve(parsed);
+                return 0;
             }
-            spaces = charArray(' ',1000);
-            loadConfig();
             if (parsed.is("interactive")) {
                 repl();
-                return;
+                return 0;
+            }
+            if (parsed.has("crawl")) {
+                conn = connection();
+                Crawl.run(conn, parsed);
+                return 0;
             }
             if (parsed.has("metadata")) {
                 // special case for db metadata traversal; no args = catalogs, 1 arg = table list, 2 args columns list
-                conn = getConn();
-                long ts = System.currentTimeMillis();
+                conn = connection();
+                long ts = System.nanoTime();
+                timing.start = ts;
                 StringBuilder extra = new StringBuilder();
                 String norm = join(".",Arrays.asList(parsed.args));
                 norm = parsed.is("upper") ? norm.toUpperCase() : norm;
                 String[] spec = norm.split("\\.");
                 String catalog = parsed.val("catalog");
                 if (parsed.is("verbose")) out("metadata access for "+spec);
+                MetaCache mc = MetaCache.of(conn, parsed);
+                DatabaseMetaData md = conn.getMetaData();
                 if (spec.length==0 || spec[0].length()<1) {
-                    boolean hasCat = conn.getMetaData().supportsCatalogsInTableDefinitions();
+                    boolean hasCat = mc.supportsCatalogs(md);
                     if (hasCat)
-                        rs = conn.getMetaData().getCatalogs();
+                        rs = mc.rows(md, "catalogs", null, null, null);
                     else
-                        rs = conn.getMetaData().getSchemas();
+                        rs = mc.rows(md, "schemas", null, null, null);
                 } else if (spec.length==1) {
-                    rs = conn.getMetaData().getTables(catalog, spec[0], null, null);
+                    rs = mc.rows(md, "tables", catalog, spec[0], null);
                 } else if (spec.length>1) {
-                    rs = conn.getMetaData().getColumns(catalog, spec[0], spec[1], null);
-                    extra.append("keys (primary) ");
-                    extra.append(pkToString(conn.getMetaData().getPrimaryKeys(catalog,spec[0],spec[1])));
-                    extra.append(" (export) ");
-                    extra.append(fkToString(conn.getMetaData().getExportedKeys(catalog,spec[0],spec[1])));
-                    extra.append(" (import) ");
-                    extra.append(ikToString(conn.getMetaData().getImportedKeys(catalog,spec[0],spec[1])));
-                    extra.append("\nindexes ");
-                    extra.append(idxToString(conn.getMetaData().getIndexInfo(catalog,spec[0],spec[1],false,true)));
-                }
-                if (parsed.is("timed")) {
-                    long te = System.currentTimeMillis();
-                    out("metadata obtained in "+(te-ts)+"ms");
+                    rs = mc.rows(md, "columns", catalog, spec[0], spec[1]);
+                    extra.append(mc.extras(conn, catalog, spec[0], spec[1]));
                 }
+                timing.metadata = System.nanoTime()-ts;
                 streamResultMem(rs, parsed);
                 if (extra.length()>0) out(extra.toString());
+                if (parsed.is("verbose")) out(mc.stats());
+                MetaCache.save();
+                timed(norm);
             } else {
                 //if (parsed.count()<2 && !parsed.has("query")) err("Need at least 2 arguments; table and order-by (-h or --help for help)");
                 String tbl = parsed.arg(0);
                 String ord = parsed.count() < 2 ? null : parsed.arg(1);
                 int first  = parsed.count() < 3 ? 1 : Integer.parseInt(parsed.arg(2));
                 int end    = parsed.count() < 4 ? first+10 : Integer.parseInt(parsed.arg(3));
-                conn = getConn();
+                if (parsed.has("diff")) {
+                    if (!parsed.has("query")) err("--diff requires an ordered -q query");
+                    String sql = parsed.val("query");
+                    Diff.run(sql.startsWith("@") ? readFile(sql.substring(1)) : sql, parsed);
+                    return 0;
+                }
+                if (parsed.has("compare")) {
+                    if (!parsed.has("query")) err("--compare requires a -q query");
+                    String sql = parsed.val("query");
+                    Compare.run(sql.startsWith("@") ? readFile(sql.substring(1)) : sql, parsed);
+                    return 0;
+                }
+                conn = connection();
+                if (parsed.has("replay")) {
+                    Replay.run(conn, parsed);
+                    return 0;
+                }
+                if (parsed.has("export")) {
+                    Export.run(conn, tbl, parsed);
+                    return 0;
+                }
+                if (parsed.has("after") && !parsed.has("query")) {
+                    Keyset.after(conn, tbl, ord, parsed.val("after"), end-first, parsed);
+                    return 0;
+                }
                 String sql = parsed.has("query") ? parsed.val("query")
                                                  : defaultQuery(conn,ord,tbl,first,end);
                 sql = sql.startsWith("@") ? readFile(sql.substring(1)) : sql;
                 if (parsed.is("dry-run")) out(sql);
-                long ts = System.currentTimeMillis();
-                stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                if (parsed.is("1-row")) stmt.setFetchSize(Integer.MIN_VALUE);
-                executeSQL(stmt,sql,ts,parsed);
+                if (parsed.has("sweep")) {
+                    Sweep.run(conn, sql, parsed);
+                    return 0;
+                }
+                if (parsed.has("concurrency")) {
+                    LoadGen.run(conn, sql, parsed);
+                    return 0;
+                }
+                long ts = System.nanoTime();
+                stmt = statement(conn, parsed);
+                timing.create = System.nanoTime()-ts;
+                executeSQL(stmt,sql,parsed);
             }
+        } catch (Exit e) {
+            return e.rc;
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(3);
+            return 3;
         } finally {
             if (rs != null)     { try { rs.close(); }   catch(Exception e) {} }
             if (stmt != null)   { try { stmt.close(); } catch(Exception e) {} }
-            if (conn != null)   { try { conn.close(); } catch(Exception e) {} }
+            if (conn != null && pool != null) pool.release();
+            else if (conn != null) { try { conn.close(); } catch(Exception e) {} }
         }
+        return 0;
     }
 
+    // the connection of an invocation; a warm one of the source when running as the daemon
+    private static Connection connection() throws Exception { return pool!=null ? pool.bind(parsed) : getConn(); }
+
+
     public static void help() {
-        out("bind    - connect to a database; optionally override <user> <passwd>\n" +
+        out("bind    - connect to a database, reusing a warm one of the source; optionally override <user> <passwd>\n" +
             "count   - select count(*) of table 'tbl'\n" +
             "db      - set/display database url for connection (used to override source)\n" +
             "display - select 10 rows from table 'tbl' or specify 'tbl order-by [start [end]]'\n" +
+            "          with keyset on 'display next|prev [tbl [order-by]]' pages on from the last rows shown\n" +
             "exec    - execute commands contained in file 'fn'\n" +
+            "generate- insert 'rows' rows of synthetic data into 'tbl' [over 'writers' connections]\n" +
+            "load    - insert the field separated lines of file 'fn' into 'tbl' [over 'writers' connections]\n" +
+            "          fields of aligned output lose their padding; load -a output to keep trailing spaces in values\n" +
+            "params  - set the values bound to the '?' of the following statements, 'params ;' clears them\n" +
+            "refresh - drop cached metadata of the current source, or only that of table 'tbl'\n" +
+            "session - display pooled connection and prepared statement cache counts\n" +
             "show    - display various metadata (type 'show' for more info)\n" +
             "use     - prepend a schema/catalog 'spec' to commands. 'use ;' resets it.\n" +
             "source  - .jdbc.conf file source name for the connection\n\n" +
@@ -552,10 +874,14 @@ public class Main {
             "   columns         - set/clear which columns to output\n" +
             "   dont-align      - toggle column alignment on and off\n" +
             "   dry-run         - display metadata of sql execution or the results\n" +
+            "   fetch-size      - rows fetched per driver round trip ('fetch-size ;' for the driver default)\n" +
             "   field-separator - field separator string\n" +
+            "   keyset          - toggle keyset (seek on the last key) pagination for display\n" +
             "   limit           - column width limit\n" +
             "   right-align     - toggle for left/right alignment\n" +
+            "   stream          - toggle driver specific streaming of large results\n" +
             "   timed           - show timing information\n" +
+            "   typed           - toggle reading columns with type specific getters\n" +
             "   upper           - convert 'show' names to uppercase\n" +
             "   verbose         - show details on what is happening\n" +
             "   whitespace      - toggle the removal of whitespace from output\n" +
@@ -577,13 +903,15 @@ public class Main {
             line = currentInp(s).readLine();
             if (line!=null && (line.trim().startsWith("#") || line.trim().startsWith("--"))) line=null;
             if (line!=null && line.trim().length()==0) line=null;
+            if (line==null && daemon && s.size()<=1) return "quit";  // the client's input has ended
             if (line==null) Thread.sleep(100);
         }
         return line;
     }
 
     public static void repl() throws Exception {
-        Connection conn = connect(new String[]{});
+        Session session = new Session();
+        Connection conn = connect(session, new String[]{});
         Stack<BufferedReader> instack = new Stack<BufferedReader>();
         parsed.opts.put("use","");  // default '' for use command
         boolean done = false;
@@ -591,7 +919,7 @@ public class Main {
             String[] cmd = line(instack).split(" ");
             String sql = null;
             if (match("bind",1,cmd)) {
-                conn = connect(cmd);
+                conn = connect(session, cmd);
             } else if (match("columns",3,cmd)) {
                 if (cmd.length>1) {parsed.opts.put("columns", cmd[1]);} else {parsed.opts.remove("columns");}
                 out(parsed.has("columns") ? "columns " + parsed.val("columns") : "all columns displayed");
@@ -606,16 +934,49 @@ public class Main {
                 option("dry-run", cmd, parsed);
             } else if (match("exec",4,cmd)) {
                 exec(instack, cmd[1]);
+            } else if (match("keyset",6,cmd)) {
+                option("keyset", cmd, parsed);
+            } else if (match("fetch-size",5,cmd)) {
+                optionset("fetch-size", cmd, parsed);
             } else if (match("field-separator",9,cmd)) {
                 optionset("field-separator", cmd, parsed);
+            } else if (match("generate",3,cmd)) {
+                if (cmd.length<3) {
+                    out("generate command requires a table name and a row count");
+                } else {
+                    int writers = cmd.length>3 ? Integer.parseInt(cmd[3]) : parsed.has("concurrency") ? parsed.valInt("concurrency") : 1;
+                    try { Generate.run(conn, parsed.val("use")+cmd[1], Long.parseLong(cmd[2]), writers, parsed); }
+                    catch (SQLException e) { out(exceptionSuggestions(e)); }
+                }
             } else if (match("help",4,cmd) || cmd[0]=="?") {
                 help();
+            } else if (match("load",4,cmd)) {
+                if (cmd.length<3) {
+                    out("load command requires a table name and a file name");
+                } else {
+                    int writers = cmd.length>3 ? Integer.parseInt(cmd[3]) : parsed.has("concurrency") ? parsed.valInt("concurrency") : 1;
+                    try { Load.run(conn, parsed.val("use")+cmd[1], cmd[2], writers, parsed); }
+                    catch (SQLException e) { out(exceptionSuggestions(e)); }
+                }
             } else if (match("limit",5,cmd)) {
                 optionset("limit", cmd, parsed);
+            } else if (match("params",6,cmd)) {
+                session.params(cmd);
             } else if (match("quit",1,cmd)) {
+                MetaCache.save();
+                session.close();
                 done = true;
+            } else if (match("refresh",3,cmd)) {
+                try {
+                    MetaCache mc = MetaCache.of(conn, parsed);
+                    int n = mc.refresh(cmd.length>1 ? cmd[1] : null);
+                    MetaCache.save();
+                    out("dropped "+n+" cached metadata entries"+(cmd.length>1 ? " of "+cmd[1] : "")+"; "+mc.stats());
+                } catch (SQLException e) { out(exceptionSuggestions(e)); }
             } else if (match("right-align",11,cmd)) {
                 option("right-align", cmd, parsed);
+            } else if (match("session",7,cmd)) {
+                out(session.stats());
             } else if (match("show",2,cmd)) {
                 sql = show(conn, cmd);
             } else if (match("sc", 2, cmd)) { // show table alias
@@ -624,8 +985,12 @@ public class Main {
                 show(conn, new String[]{"show", "tables", cmd.length > 1 ? cmd[1] : null, cmd.length > 2 ? cmd[2] : null});
             } else if (match("source", 6, cmd)) {
                 optionset("source", cmd, parsed);
+            } else if (match("stream",6,cmd)) {
+                option("stream", cmd, parsed);
             } else if (match("timed",5,cmd)) {
                 option("timed",cmd,parsed);
+            } else if (match("typed",5,cmd)) {
+                option("typed", cmd, parsed);
             } else if (match("upper",5,cmd)) {
                 option("upper", cmd, parsed);
             } else if (match("use", 3, cmd)) {
@@ -637,6 +1002,16 @@ public class Main {
             } else if (match("display",3,cmd)) {
                 if (cmd.length<2) {
                     out("display command requires at least a table name");
+                } else if (cmd[1].equals("next") || cmd[1].equals("prev")) {
+                    try { Keyset.page(conn, cmd[1].equals("next"), cmd.length < 3 ? null : parsed.val("use")+cmd[2], cmd.length < 4 ? null : cmd[3], parsed); }
+                    catch (SQLException e) { out(exceptionSuggestions(e)); timing = new Timing(); }
+                } else if (parsed.is("keyset")) {
+                    String tbl = parsed.val("use")+cmd[1];
+                    String ord = cmd.length < 3 ? null : cmd[2];
+                    int first  = cmd.length < 4 ? 1 : Integer.parseInt(cmd[3]);
+                    int end    = cmd.length < 5 ? first+10 : Integer.parseInt(cmd[4]);
+                    try { Keyset.display(conn, tbl, ord, first, end, parsed); }
+                    catch (SQLException e) { out(exceptionSuggestions(e)); timing = new Timing(); }
                 } else {
                     String tbl = parsed.val("use")+cmd[1];
                     String ord = cmd.length < 3 ? null : cmd[2];
@@ -649,10 +1024,17 @@ public class Main {
             }
             // exec a sql statement if one was created.
             if (sql!=null) {
-                long ts = System.currentTimeMillis();
-                Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                if (parsed.is("1-row")) stmt.setFetchSize(Integer.MIN_VALUE);
-                try { executeSQL(stmt,sql,ts,parsed);} catch (SQLException e) {out(exceptionSuggestions(e));}
+                Statement stmt = null;
+                try {
+                    long ts = System.nanoTime();
+                    stmt = session.statement(sql, parsed);
+                    timing.create = System.nanoTime()-ts;
+                    executeSQL(stmt,sql,parsed);
+                } catch (SQLException e) {
+                    out(exceptionSuggestions(e)); timing = new Timing();
+                } finally {
+                    if (stmt!=null) session.done(stmt);
+                }
             }
         }
     }
@@ -667,7 +1049,7 @@ public class Main {
     private static ResultSet showTables(Connection conn, String[] cmd) throws SQLException {
         ResultSet rs = null;
         String[] spec = dotspec(cmd, 2, parsed.is("upper"), parsed.val("use"));
-        boolean hasCat = conn.getMetaData().supportsCatalogsInTableDefinitions();
+        boolean hasCat = MetaCache.of(conn, parsed).supportsCatalogs(conn.getMetaData());
         if (spec.length>1)
             rs = getTables(conn, spec[0], spec[1]);
         else if (hasCat && spec.length>0)
@@ -683,7 +1065,7 @@ public class Main {
         ResultSet rs = null;
         if (cmd.length<3) { out("a table name must be specified"); return null; }
         String[] spec = dotspec(cmd, 2, parsed.is("upper"), parsed.val("use"));
-        boolean hasCat = conn.getMetaData().supportsCatalogsInTableDefinitions();
+        boolean hasCat = MetaCache.of(conn, parsed).supportsCatalogs(conn.getMetaData());
         if (hasCat && spec.length>1)
             rs = getColumns(conn, spec[0], null, spec[1], extras);
         else if (spec.length>1)
@@ -700,16 +1082,18 @@ public class Main {
         }
         try {
             StringBuffer extras = new StringBuffer();
-            long ts = System.currentTimeMillis();
+            long ts = System.nanoTime();
+            timing.start = ts;
             ResultSet rs = null;
+            MetaCache mc = MetaCache.of(conn, parsed);
             if (match("catalogs",8,cmd,1)) {
-                rs = conn.getMetaData().getCatalogs();
+                rs = mc.rows(conn.getMetaData(), "catalogs", null, null, null);
             } else if (match("properties",10,cmd,1)) {
-                rs = conn.getMetaData().getClientInfoProperties();
+                rs = mc.rows(conn.getMetaData(), "properties", null, null, null);
             } else if (match("schemas",7,cmd,1)) {
-                rs = conn.getMetaData().getSchemas();
+                rs = mc.rows(conn.getMetaData(), "schemas", null, null, null);
             } else if (match("types",5,cmd,1)) {
-                rs = conn.getMetaData().getTypeInfo();
+                rs = mc.rows(conn.getMetaData(), "types", null, null, null);
             } else if (match("tables",6,cmd,1)) {
                 rs = showTables(conn, cmd);
             } else if (match("table",5,cmd,1)) {
@@ -717,15 +1101,14 @@ public class Main {
             } else {
                 return join(" ", Arrays.asList(cmd));
             }
-            if (parsed.is("timed")) {
-                long te = System.currentTimeMillis();
-                out("metadata obtained in " + (te - ts) + "ms");
-            }
+            timing.metadata = System.nanoTime()-ts;
             if (rs!=null) {
                 int[] columns = columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-"+rs.getMetaData().getColumnCount());
                 streamResultMem(rs, parsed);
                 if (extras.length()>0) out(extras.toString());
             }
+            MetaCache.save();
+            timed(join(" ", Arrays.asList(cmd)));
         } catch(SQLException sql) {
             out("error while obtaining metadata - "+sql.getMessage());
         }
@@ -739,13 +1122,14 @@ public class Main {
     }
 
     public static ResultSet getColumns(Connection conn, String catalog, String schema, String table, StringBuffer extra) throws SQLException {
-        ResultSet rs = conn.getMetaData().getColumns(catalog,schema,table,null);
-        keyIndexExtras(conn,catalog,schema,table,extra);
+        MetaCache mc = MetaCache.of(conn, parsed);
+        ResultSet rs = mc.rows(conn.getMetaData(), "columns", catalog, schema, table);
+        extra.append(mc.extras(conn, catalog, schema, table));
         return rs;
     }
 
     public static ResultSet getTables(Connection conn, String catalog, String schema) throws SQLException {
-        ResultSet rs = conn.getMetaData().getTables(catalog,schema,null,null);
+        ResultSet rs = MetaCache.of(conn, parsed).rows(conn.getMetaData(), "tables", catalog, schema, null);
         return rs;
     }
 
@@ -786,34 +1170,47 @@ public class Main {
     }
 
 
-    private static Connection connect(String[] cmd) throws Exception {
+    private static Connection connect(Session session, String[] cmd) throws Exception {
         if (cmd.length>1) parsed.opts.put("user",cmd[1]);
         if (cmd.length>2) parsed.opts.put("password",cmd[2]);
         Connection conn=null;
-        try { conn = getConn(); } catch(Exception e) {out("failed to connect to db - "+e.toString()); if (parsed.is("verbose")) e.printStackTrace(); }
+        try { conn = session.bind(parsed); } catch(Exception e) {out("failed to connect to db - "+e.toString()); if (parsed.is("verbose")) e.printStackTrace(); }
         return conn;
     }
 
-    private static void executeSQL(Statement stmt, String sql, long ts, OptionParser.ParsedArgs parsed) throws SQLException {
+    private static void executeSQL(Statement stmt, String sql, OptionParser.ParsedArgs parsed) throws SQLException {
         if (parsed.is("verbose")) out("executing sql "+sql);
-        boolean isRS = stmt.execute(sql);
-        long te = System.currentTimeMillis();
-        if (parsed.is("timed")) out("sql processed in "+(te-ts)+"ms");
-        boolean done = false;
-        while(!done) {
-            if (isRS) {
-                if (parsed.is("dry-run")) {
-                    streamMetadata(stmt.getResultSet(), parsed);
+        if (parsed.is("stream")) resetPeakHeap();
+        timing.begin(parsed.is("timed"));
+        long alloc = timing.allocated();
+        boolean ok = false;
+        try {
+            timing.start = System.nanoTime();
+            boolean isRS = stmt instanceof PreparedStatement ? ((PreparedStatement)stmt).execute() : stmt.execute(sql);
+            timing.execute = System.nanoTime()-timing.start;
+            timing.executeAlloc = timing.allocated()-alloc;
+            boolean done = false;
+            while(!done) {
+                if (isRS) {
+                    if (parsed.is("dry-run")) {
+                        streamMetadata(stmt.getResultSet(), parsed);
+                    } else {
+                        streamResultMem(stmt.getResultSet(),parsed);
+                    }
                 } else {
-                    streamResultMem(stmt.getResultSet(),parsed);
+                    int cnt = stmt.getUpdateCount();
+                    if (cnt > -1) out("update count is " + cnt);
+                    done = true;
                 }
-            } else {
-                int cnt = stmt.getUpdateCount();
-                if (cnt > -1) out("update count is " + cnt);
-                done = true;
+                isRS = stmt.getMoreResults();
             }
-            isRS = stmt.getMoreResults();
+            ok = true;
+        } finally {
+            streamDone(stmt.getConnection(), ok);
         }
+        if (parsed.is("stream")) timing.peakHeap = peakHeap();
+        timing.end();
+        timed(sql);
     }
 
     public static int[] intArray(int val, int n) {
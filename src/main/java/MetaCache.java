@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * Per source cache of DatabaseMetaData results for the show commands and -m.  Result sets are kept as
+ * CachedRowSets (each caller gets its own cursor over the shared rows), key/index summaries as strings.
+ * Each source holds at most MAX entries, least recently used first out, and an entry is reloaded once
+ * it is older than --cache-ttl seconds (0 turns caching off).  Without --cache-ttl entries are kept for
+ * TTL seconds in the repl, the daemon and with --cache-file, and not at all in a single run.  With
+ * --cache-file the caches of all sources, keyed by url and user, are kept in that file between runs; only
+ * the classes a cache is made of are read back from it.
+ */
+public class MetaCache {
+    static final int MAX = 512;
+    static final long TTL = 300;
+
+    // what a saved cache holds: the maps and entries below, strings, boxed values and CachedRowSets with their rows
+    static final Set<String> PACKAGES = new HashSet<String>(Arrays.asList("java.lang", "java.util", "java.math", "java.sql",
+            "javax.sql.rowset", "javax.sql.rowset.serial", "com.sun.rowset", "com.sun.rowset.internal", "com.sun.rowset.providers"));
+
+    static class Input extends ObjectInputStream {
+        Input(InputStream in) throws IOException { super(in); }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName().replaceFirst("^\\[+", "");
+            if (name.startsWith("L") && name.endsWith(";")) name = name.substring(1, name.length()-1);
+            else if (name.length() == 1) return super.resolveClass(desc);  // array of a primitive
+            int dot = name.lastIndexOf('.');
+            boolean allowed = dot < 0 ? name.startsWith("MetaCache$") : PACKAGES.contains(name.substring(0, dot));
+            if (!allowed) throw new InvalidClassException(name, "not expected in a metadata cache file");
+            return super.resolveClass(desc);
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxy", "not expected in a metadata cache file");
+        }
+    }
+
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long loaded;
+        Object value;
+        Entry(Object value) { this.value = value; loaded = System.currentTimeMillis(); }
+    }
+
+    static class Lru extends LinkedHashMap<String,MetaCache.Entry> {
+        private static final long serialVersionUID = 1L;
+        Lru() { super(64, 0.75f, true); }
+        protected boolean removeEldestEntry(Map.Entry<String,MetaCache.Entry> eldest) { return size() > MAX; }
+    }
+
+    private static OptionParser.ParsedArgs parsed = null;
+    private static HashMap<String,Lru> sources = null;
+    private static boolean dirty = false;
+    static long hits = 0, misses = 0;
+
+    final Lru entries;
+    final long ttl;  // ms
+
+    MetaCache(Lru entries, long ttl) { this.entries = entries; this.ttl = ttl; }
+
+    static File file() { return parsed != null && parsed.has("cache-file") ? new File(parsed.val("cache-file")) : null; }
+
+    @SuppressWarnings("unchecked")
+    static synchronized void load() {
+        if (sources != null) return;
+        sources = new HashMap<String,Lru>();
+        File f = file();
+        if (f == null || !f.exists()) return;
+        try {
+            ObjectInputStream in = new Input(new FileInputStream(f));
+            try { sources = (HashMap<String,Lru>) in.readObject(); }
+            finally { in.close(); }
+            if (parsed.is("verbose")) Main.out("loaded metadata cache of "+sources.size()+" source(s) from "+f.getPath());
+        } catch (Exception e) {
+            Main.out("ignoring metadata cache file "+f.getPath()+" - "+e.toString());
+        }
+    }
+
+    public static synchronized void save() {
+        File f = file();
+        if (f == null || sources == null || !dirty) return;
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(f));
+            try { out.writeObject(sources); }
+            finally { out.close(); }
+            dirty = false;
+        } catch (IOException e) {
+            Main.out("failed to save metadata cache to "+f.getPath()+" - "+e.toString());
+        }
+    }
+
+    // the cache of the source the connection is for
+    public static synchronized MetaCache of(Connection conn, OptionParser.ParsedArgs args) throws SQLException {
+        parsed = args;
+        load();
+        DatabaseMetaData m = conn.getMetaData();
+        String id = m.getURL()+"|"+m.getUserName();
+        Lru e = sources.get(id);
+        if (e == null) sources.put(id, e = new Lru());
+        long ttl = (parsed.has("cache-ttl") ? Long.parseLong(parsed.val("cache-ttl"))
+                    : parsed.is("interactive") || Main.daemon || file() != null ? TTL : 0) * 1000;
+        return new MetaCache(e, ttl);
+    }
+
+    static String key(String call, String... args) {
+        StringBuilder sb = new StringBuilder(call);
+        for (String a : args) sb.append('|').append(a == null ? "" : a);
+        return sb.toString();
+    }
+
+    Object cached(String key) {
+        if (ttl <= 0) return null;
+        synchronized (MetaCache.class) {
+            Entry e = entries.get(key);
+            if (e == null || System.currentTimeMillis() - e.loaded > ttl) return null;
+            hits++;
+            return e.value;
+        }
+    }
+
+    void put(String key, Object value) {
+        if (ttl <= 0) return;
+        synchronized (MetaCache.class) {
+            entries.put(key, new Entry(value));
+            dirty = true;
+        }
+    }
+
+    // a DatabaseMetaData result set; from the cache as a new cursor over the shared rows
+    public ResultSet rows(DatabaseMetaData m, String call, String catalog, String schema, String table) throws SQLException {
+        String key = key(call, catalog, schema, table);
+        CachedRowSet crs = (CachedRowSet) cached(key);
+        if (crs == null) {
+            misses++;
+            ResultSet rs;
+            switch (call) {
+                case "catalogs":   rs = m.getCatalogs(); break;
+                case "schemas":    rs = m.getSchemas(); break;
+                case "types":      rs = m.getTypeInfo(); break;
+                case "properties": rs = m.getClientInfoProperties(); break;
+                case "tables":     rs = m.getTables(catalog, schema, null, null); break;
+                case "columns":    rs = m.getColumns(catalog, schema, table, null); break;
+                default: throw new SQLException("unknown metadata call "+call);
+            }
+            if (ttl <= 0) return rs;
+            crs = RowSetProvider.newFactory().createCachedRowSet();
+            try { crs.populate(rs); }
+            finally { rs.close(); }
+            put(key, crs);
+        }
+        CachedRowSet copy = (CachedRowSet) crs.createShared();
+        copy.beforeFirst();
+        return copy;
+    }
+
+    // keys and indexes summary of a table (Main.keyIndexExtras)
+    public String extras(Connection conn, String catalog, String schema, String table) throws SQLException {
+        String key = key("extras", catalog, schema, table);
+        String s = (String) cached(key);
+        if (s == null) {
+            misses++;
+            StringBuffer sb = new StringBuffer();
+            Main.keyIndexExtras(conn, catalog, schema, table, sb);
+            put(key, s = sb.toString());
+        }
+        return s;
+    }
+
+    public boolean supportsCatalogs(DatabaseMetaData m) throws SQLException {
+        Boolean b = (Boolean) cached("supportsCatalogs");
+        if (b == null) {
+            misses++;
+            put("supportsCatalogs", b = m.supportsCatalogsInTableDefinitions());
+        }
+        return b;
+    }
+
+    // drop everything cached for the source, or the entries mentioning name; returns the number dropped
+    public int refresh(String name) {
+        synchronized (MetaCache.class) {
+            int n = 0;
+            for (Iterator<String> i = entries.keySet().iterator(); i.hasNext(); ) {
+                String k = i.next();
+                if (name == null || mentions(k, name.substring(name.lastIndexOf('.')+1))) { i.remove(); n++; }
+            }
+            if (n > 0) dirty = true;
+            return n;
+        }
+    }
+
+    static boolean mentions(String key, String name) {
+        for (String part : key.split("\\|"))
+            if (part.equalsIgnoreCase(name)) return true;
+        return false;
+    }
+
+    public String stats() {
+        synchronized (MetaCache.class) {
+            return "metadata cache: "+entries.size()+" entries, "+hits+" hits, "+misses+" misses, ttl "+(ttl/1000)+"s"+(file() != null ? ", file "+file().getPath() : "");
+        }
+    }
+}
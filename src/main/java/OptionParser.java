@@ -55,7 +55,7 @@ public class OptionParser {
     }
 
     void out(String s)  { System.out.println(s);}
-    void err(int rc)    { help(); System.exit(rc);}
+    void err(int rc)    { help(); Main.exit(rc);}
 
     public void help() {
         out(desc);
@@ -0,0 +1,154 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pipelined streamResultMem for --pipeline.  A fetch thread reads rows into batches of --buffer rows
+ * while the calling thread renders and writes the batches it has already filled, so the driver's
+ * round trips overlap formatting and output.  The batches are a fixed set of RowBuffers that go round
+ * between a queue of free and a queue of full ones; when either side has to wait for the other the
+ * time is counted as its stall (the producer stalls when rendering is slower, the consumer when
+ * fetching is).
+ */
+public class Pipeline {
+
+    static class Batch {
+        RowBuffer eles;
+        TypedColumns typed;
+        int from = 0;           // first data row (the titles are row 0 of the first batch)
+        int rows = 0;
+        int[][] findLimits = null;
+        boolean last = false;
+
+        Batch(RowBuffer eles, TypedColumns typed) { this.eles = eles; this.typed = typed; }
+    }
+
+    static class Producer extends Thread {
+        ResultSet rs;
+        int[] col;
+        boolean[] isBlob;
+        boolean[] applytx;
+        int[][] limits;
+        ArrayBlockingQueue<Batch> free, full;
+        long start;
+        long firstRow = 0, fetch = 0, stall = 0, total = 0, alloc = 0, cpu = 0;
+        boolean sample;
+        Exception error = null;
+
+        Producer(ResultSet rs, int[] col, boolean[] isBlob, boolean[] applytx, int[][] limits, ArrayBlockingQueue<Batch> free, ArrayBlockingQueue<Batch> full, long start) {
+            super("jdbcq-fetch");
+            setDaemon(true);
+            this.rs = rs; this.col = col; this.isBlob = isBlob; this.applytx = applytx; this.limits = limits;
+            this.free = free; this.full = full; this.start = start;
+            this.sample = Main.timing.sampling;
+        }
+
+        Batch take() throws InterruptedException {
+            long ts = System.nanoTime();
+            Batch b = free.take();
+            stall += System.nanoTime() - ts;
+            return b;
+        }
+
+        public void run() {
+            long ts = System.nanoTime();
+            long alloc0 = sample ? Timing.threadAllocated() : 0, cpu0 = sample ? Timing.threadCpu() : 0;
+            Batch b = null;
+            try {
+                b = take();
+                int n = b.eles.rows();
+                int row = 1;  // the titles were captured into row 0 of the first batch
+                b.from = 1;
+                b.findLimits = limits;
+                while (rs.next()) {
+                    if (total == 0) firstRow = System.nanoTime() - start;
+                    if (b.typed != null) b.typed.read(rs, row);
+                    else Main.captureRow(rs, col, isBlob, applytx, b.findLimits, b.eles, row);
+                    total++;
+                    if (++row >= n) {
+                        b.rows = row;
+                        full.put(b);
+                        b = take();
+                        b.from = row = 0;
+                        b.findLimits = null;  // column widths come from the first batch only
+                    }
+                }
+                b.rows = row;
+            } catch (Exception e) {
+                error = e;
+                if (b != null) b.rows = 0;
+            }
+            fetch = System.nanoTime() - ts - stall;
+            if (sample) {
+                alloc = Timing.threadAllocated() - alloc0;
+                cpu = Timing.threadCpu() - cpu0;
+            }
+            if (b == null) b = new Batch(null, null);
+            b.last = true;
+            try { full.put(b); } catch (InterruptedException e) {}
+        }
+    }
+
+    public static void stream(ResultSet rs, OptionParser.ParsedArgs parsed) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        String fieldSep = parsed.val("field-separator");
+        int[] col = Main.columnsFor(parsed.has("columns") ? parsed.val("columns") : "1-" + md.getColumnCount());
+        boolean[] applytx = Main.txfor(col, Main.columnsFor(parsed.has("transform") ? parsed.val("transform") : ""));
+        boolean align = !parsed.is("dont-align");
+        boolean rightPad = !parsed.is("right-align");
+        boolean leave = parsed.is("leave-whitespace");
+        int truncateAt = Integer.parseInt(parsed.val("limit"));
+        int nAtAtime = Integer.parseInt(parsed.val("buffer"));
+        int slots = Math.max(2, parsed.valInt("pipeline"));
+
+        int[][] limits = Main.int2DArray(0, 2, col.length);  // row 0=max length seen, 1=absolute column width limit
+        limits[1] = Main.intArray(truncateAt, col.length);
+        ArrayBlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(slots);
+        ArrayBlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(slots);
+        Batch[] batches = new Batch[slots];
+        for (int i = 0; i < slots; i++) {
+            batches[i] = new Batch(new RowBuffer(nAtAtime, col.length), parsed.is("typed") ? new TypedColumns(md, col, nAtAtime) : null);
+            free.add(batches[i]);
+        }
+        for (int i = 0; i < col.length; i++)
+            Main.capture(limits, batches[0].eles, 0, i, md.getColumnName(col[i]));
+
+        Producer p = new Producer(rs, col, Main.blobColumns(md, col), applytx, limits, free, full, Main.timing.start);
+        long stall = 0;
+        p.start();
+        try {
+            while (true) {
+                long ts = System.nanoTime();
+                Batch b = full.take();
+                stall += System.nanoTime() - ts;
+                if (b.typed != null) Main.renderTyped(b.typed, b.eles, b.from, b.rows, b.findLimits, applytx);
+                if (b.eles != null && (b.rows > 0 || b.from > 0))
+                    Main.flush(limits, b.eles, Math.max(b.rows, b.from), align, rightPad, leave, fieldSep);
+                if (b.last) break;
+                b.eles.clear();
+                free.put(b);
+            }
+            p.join();
+        } catch (InterruptedException e) {
+            throw new SQLException("interrupted while rendering", e);
+        } finally {
+            p.interrupt();
+        }
+        if (p.error instanceof SQLException) throw (SQLException) p.error;
+        if (p.error != null) throw new SQLException(p.error);
+
+        Main.timing.firstRow = p.firstRow;
+        Main.timing.fetch += p.fetch;
+        Main.timing.rows += p.total;
+        Main.timing.producerStall = p.stall;
+        Main.timing.consumerStall = stall;
+        Main.timing.fetchAlloc += p.alloc;  // the fetch thread's own, so all of it is fetching
+        Main.timing.alloc += p.alloc;
+        Main.timing.cpu += p.cpu;
+        if (parsed.is("typed") && parsed.is("timed")) {
+            for (int i = 1; i < slots; i++) batches[0].typed.add(batches[i].typed);
+            Main.out(batches[0].typed.report());
+        }
+    }
+}
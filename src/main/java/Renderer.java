@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes table cells straight into a reusable char buffer which is encoded into a reusable byte
+ * buffer and handed to the output stream in large blocks.  Whitespace scrubbing, truncation and
+ * padding are done in place in the char buffer, so rendering a cell allocates nothing.
+ *
+ * The stdout renderer resolves System.out on every write (so System.setOut redirection is
+ * honoured); writes of a full block bypass the PrintStream's own buffering.
+ */
+public class Renderer {
+    static final int SIZE = 64 * 1024;
+    private static Renderer stdout = null;
+
+    char[] buf = new char[SIZE];
+    int pos = 0;
+    byte[] bytes;
+    ByteBuffer bb;
+    CharBuffer cb;
+    CharsetEncoder enc;
+    OutputStream target;  // null = System.out
+    long outputNs = 0;    // time spent encoding and writing
+
+    public Renderer(OutputStream target) { this(target, Charset.defaultCharset()); }
+
+    public Renderer(OutputStream target, Charset cs) {
+        this.target = target;
+        enc = cs.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = new byte[(int)(SIZE * enc.maxBytesPerChar())];
+        bb = ByteBuffer.wrap(bytes);
+        cb = CharBuffer.wrap(buf);
+    }
+
+    public static Renderer stdout() {
+        if (stdout == null) stdout = new Renderer(null);
+        return stdout;
+    }
+
+    static boolean isWhitespace(char c) { return c==' ' || c=='\t' || c=='\n' || c=='\u000B' || c=='\f' || c=='\r'; }  // regex \s
+
+    void ensure(int n) {
+        if (pos + n <= buf.length) return;
+        drain();
+        if (pos + n > buf.length) {
+            char[] b = new char[pos + n];
+            System.arraycopy(buf, 0, b, 0, pos);
+            buf = b;
+            cb = CharBuffer.wrap(buf);
+            bytes = new byte[(int)(b.length * enc.maxBytesPerChar())];
+            bb = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    public Renderer append(String s) {
+        int n = s.length();
+        ensure(n);
+        s.getChars(0, n, buf, pos);
+        pos += n;
+        return this;
+    }
+
+    public Renderer append(char c) {
+        ensure(1);
+        buf[pos++] = c;
+        return this;
+    }
+
+    public Renderer pad(int n) {
+        ensure(n);
+        for (int i = 0; i < n; i++)
+            buf[pos++] = ' ';
+        return this;
+    }
+
+    /**
+     * Render one cell from src[off..off+len); at most max characters (longer values end in '...'),
+     * padded with spaces to width on the right (or left when rightPad is false).  Equivalent to
+     * niceify() plus padding.
+     */
+    public void cell(char[] src, int off, int len, int max, int width, boolean rightPad, boolean leaveWhitespace) {
+        int pad = len > width ? 0 : width - len;
+        if (!rightPad) pad(pad);
+        int n = len <= max ? len : Math.max(0, max - 3);
+        ensure(n + 3);
+        if (leaveWhitespace) {
+            System.arraycopy(src, off, buf, pos, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                char c = src[off+i];
+                buf[pos+i] = isWhitespace(c) ? ' ' : c;
+            }
+        }
+        pos += n;
+        if (len > max) { buf[pos++] = '.'; buf[pos++] = '.'; buf[pos++] = '.'; }
+        if (rightPad) pad(pad);
+    }
+
+    // a whole value with whitespace scrubbed (unless leaveWhitespace); null is written as an empty field
+    public void field(String s, boolean leaveWhitespace) {
+        if (s == null) return;
+        int n = s.length();
+        ensure(n);
+        s.getChars(0, n, buf, pos);
+        if (!leaveWhitespace) {
+            for (int i = pos, end = pos + n; i < end; i++)
+                if (isWhitespace(buf[i])) buf[i] = ' ';
+        }
+        pos += n;
+    }
+
+    // a CSV field (RFC 4180): quoted, with quotes doubled, when it holds the separator, a quote or a line break
+    public void csv(String s, char sep) {
+        if (s == null) return;
+        int n = s.length();
+        boolean quote = false;
+        for (int i = 0; i < n && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == sep || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) { append(s); return; }
+        ensure(n*2 + 2);
+        buf[pos++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"') buf[pos++] = '"';
+            buf[pos++] = c;
+        }
+        buf[pos++] = '"';
+    }
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // a JSON string literal; null is written as null
+    public void json(String s) {
+        if (s == null) { append("null"); return; }
+        int n = s.length();
+        ensure(n*6 + 2);
+        buf[pos++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') { buf[pos++] = '\\'; buf[pos++] = c; }
+            else if (c == '\n') { buf[pos++] = '\\'; buf[pos++] = 'n'; }
+            else if (c == '\r') { buf[pos++] = '\\'; buf[pos++] = 'r'; }
+            else if (c == '\t') { buf[pos++] = '\\'; buf[pos++] = 't'; }
+            else if (c < 0x20) {
+                buf[pos++] = '\\'; buf[pos++] = 'u'; buf[pos++] = '0'; buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4]; buf[pos++] = HEX[c & 0xf];
+            }
+            else buf[pos++] = c;
+        }
+        buf[pos++] = '"';
+    }
+
+    // encode the buffered chars and write them out
+    void drain() {
+        long ts = System.nanoTime();
+        OutputStream os = target == null ? System.out : target;
+        try {
+            cb.clear();
+            cb.limit(pos);
+            while (true) {
+                CoderResult r = enc.encode(cb, bb, false);
+                if (bb.position() > 0) {
+                    os.write(bytes, 0, bb.position());
+                    bb.clear();
+                }
+                if (!r.isOverflow()) break;
+            }
+            // a trailing high surrogate waits for the rest of its pair
+            int left = cb.remaining();
+            if (left > 0) System.arraycopy(buf, cb.position(), buf, 0, left);
+            pos = left;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        outputNs += System.nanoTime() - ts;
+    }
+
+    public void flush() {
+        drain();
+        long ts = System.nanoTime();
+        try {
+            (target == null ? System.out : target).flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        outputNs += System.nanoTime() - ts;
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (target != null) target.close();
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+
+/**
+ * Workload replay (--replay file) in an open model: a scheduler thread issues statements at the --rate
+ * arrival rate regardless of how fast they complete, and a pool of -C connections takes them off a queue.
+ * Latency is measured from the time a statement was due to start, not from when a connection got to it,
+ * so a stalled database shows up as queueing delay instead of as fewer, faster samples (coordinated
+ * omission).  The time spent executing on the connection is reported as service time next to it.
+ *
+ * The workload file has one directive per line; params and think belong to the query above them:
+ *
+ *   # class weight sql
+ *   query lookup 80 select * from emp where id = ?
+ *   params 17
+ *   params 4000
+ *   query scan 5 select count(*) from emp
+ *   think 20
+ *
+ * Each arrival picks a class by weight and one of its params lines (bound like the repl's params command),
+ * both drawn from a Random seeded with --seed so the same workload file replays the same sequence.  think
+ * is milliseconds the connection stays busy after the statement, like an application working between
+ * calls; it reduces the capacity of the pool but is not part of the latency.
+ */
+public class Replay {
+    static final int WORKERS = 8;
+
+    static class Query {
+        String name;
+        int weight;
+        String sql;
+        long think = 0;
+        List<String[]> params = new ArrayList<String[]>();
+        Query(String name, int weight, String sql) { this.name = name; this.weight = weight; this.sql = sql; }
+    }
+
+    static class Arrival {
+        int query;
+        String[] params;
+        long due;
+        Arrival(int query, String[] params, long due) { this.query = query; this.params = params; this.due = due; }
+    }
+
+    static final Arrival END = new Arrival(-1, null, 0);
+
+    static List<Query> parse(String fn) throws Exception {
+        List<Query> queries = new ArrayList<Query>();
+        BufferedReader r = new BufferedReader(new FileReader(fn));
+        try {
+            String line;
+            int n = 0;
+            while ((line = r.readLine()) != null) {
+                n++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                String[] w = line.split("\\s+", 4);
+                Query last = queries.isEmpty() ? null : queries.get(queries.size()-1);
+                if (w[0].equals("query") && w.length == 4 && w[2].matches("\\d+")) {
+                    queries.add(new Query(w[1], Integer.parseInt(w[2]), w[3]));
+                } else if (w[0].equals("params") && last != null) {
+                    List<String> p = new ArrayList<String>();
+                    Matcher m = Session.PARAM.matcher(line.substring(6));
+                    while (m.find()) p.add(m.group());
+                    last.params.add(p.toArray(new String[p.size()]));
+                } else if (w[0].equals("think") && w.length == 2 && last != null) {
+                    last.think = (long)(Double.parseDouble(w[1]) * 1e6);
+                } else {
+                    Main.err(fn+":"+n+": expected 'query name weight sql', 'params values...' or 'think ms' - "+line);
+                }
+            }
+        } finally {
+            r.close();
+        }
+        int weights = 0;
+        for (Query q : queries) weights += q.weight;
+        if (weights == 0) Main.err(fn+": no query with a weight above 0");
+        return queries;
+    }
+
+    static class Worker extends Thread {
+        Connection conn;
+        List<Query> queries;
+        LinkedBlockingQueue<Arrival> queue;
+        OptionParser.ParsedArgs parsed;
+        HashMap<String,PreparedStatement> prepared = new HashMap<String,PreparedStatement>();
+        Histogram[] latency, service;
+        long[] errors;
+        long rows = 0;
+        SQLException lastError = null;
+
+        Worker(int n, Connection conn, List<Query> queries, LinkedBlockingQueue<Arrival> queue, OptionParser.ParsedArgs parsed) {
+            super("jdbcq-replay-"+n);
+            this.conn = conn;
+            this.queries = queries;
+            this.queue = queue;
+            this.parsed = parsed;
+            latency = new Histogram[queries.size()];
+            service = new Histogram[queries.size()];
+            errors = new long[queries.size()];
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new Histogram();
+                service[i] = new Histogram();
+            }
+        }
+
+        Statement statement(Query q, String[] params) throws SQLException {
+            if (!Session.hasParams(q.sql)) return Main.statement(conn, parsed);
+            PreparedStatement ps = prepared.get(q.sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(q.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                prepared.put(q.sql, ps);
+            } else {
+                ps.setFetchSize(0);  // back to the driver default before the options are applied again
+            }
+            Main.fetchOptions(conn, ps, parsed);  // every time, as --stream may have to open a transaction again
+            ps.clearParameters();
+            for (int i = 0; params != null && i < params.length; i++) Session.bind(ps, i+1, params[i]);
+            return ps;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Arrival a = queue.take();
+                    if (a == END) break;
+                    Query q = queries.get(a.query);
+                    long ts = System.nanoTime();
+                    Statement stmt = null;
+                    boolean ok = false;
+                    try {
+                        stmt = statement(q, a.params);
+                        boolean isRS = stmt instanceof PreparedStatement ? ((PreparedStatement)stmt).execute() : stmt.execute(q.sql);
+                        while (isRS || stmt.getUpdateCount() > -1) {
+                            if (isRS) rows += Main.drain(stmt.getResultSet());
+                            isRS = stmt.getMoreResults();
+                        }
+                        long done = System.nanoTime();
+                        latency[a.query].record(done - a.due);
+                        service[a.query].record(done - ts);
+                        ok = true;
+                    } catch (SQLException e) {
+                        errors[a.query]++;
+                        lastError = e;
+                    } finally {
+                        if (stmt != null && !(stmt instanceof PreparedStatement)) { try { stmt.close(); } catch(Exception e) {} }
+                        try { Main.streamDone(conn, ok); } catch(SQLException e) { errors[a.query]++; lastError = e; }
+                    }
+                    if (q.think > 0) Thread.sleep(q.think / 1000000, (int)(q.think % 1000000));
+                }
+            } catch (InterruptedException e) {
+            } finally {
+                for (PreparedStatement ps : prepared.values()) { try { ps.close(); } catch(Exception e) {} }
+            }
+        }
+    }
+
+    // --rate is arrivals per second, evenly spaced, or poisson:N for exponentially distributed gaps
+    public static void run(Connection first, OptionParser.ParsedArgs parsed) throws Exception {
+        String fn = parsed.val("replay");
+        List<Query> queries = parse(fn);
+        if (!parsed.has("rate")) Main.err("--replay needs a --rate of arrivals per second");
+        String rate = parsed.val("rate");
+        boolean poisson = rate.startsWith("poisson:");
+        double perSec = Double.parseDouble(poisson ? rate.substring(8) : rate);
+        if (perSec <= 0) Main.err("--rate must be above 0");
+        int n = parsed.has("concurrency") ? parsed.valInt("concurrency") : WORKERS;
+        if (n < 1) Main.err("concurrency must be at least 1");
+        long arrivals = parsed.has("iterations") ? Long.parseLong(parsed.val("iterations")) : Long.MAX_VALUE;
+        long duration = parsed.has("duration") ? (long)(Double.parseDouble(parsed.val("duration"))*1e9)
+                                               : parsed.has("iterations") ? Long.MAX_VALUE/2 : 10000000000L;
+        Random random = new Random(Long.parseLong(parsed.val("seed")));
+        int[] weights = new int[queries.size()];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) weights[i] = total += queries.get(i).weight;
+
+        // connections are opened up front so connect cost is not part of the measurement
+        Connection[] conns = new Connection[n];
+        conns[0] = first;
+        try {
+            for (int i = 1; i < n; i++)
+                conns[i] = Main.getConn();
+            Main.out(String.format("replaying %s (%d classes) at %s%.1f/s over %d connections", fn, queries.size(),
+                    poisson ? "poisson " : "", perSec, n));
+
+            LinkedBlockingQueue<Arrival> queue = new LinkedBlockingQueue<Arrival>();
+            Worker[] workers = new Worker[n];
+            for (int i = 0; i < n; i++) {
+                workers[i] = new Worker(i, conns[i], queries, queue, parsed);
+                workers[i].start();
+            }
+
+            // the scheduler: arrival times follow the rate alone, never the completions
+            long ts = System.nanoTime(), due = ts, issued = 0;
+            int maxQueue = 0;
+            double gap = 1e9 / perSec;
+            while (issued < arrivals && due - ts < duration) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                int pick = random.nextInt(total), q = 0;
+                while (weights[q] <= pick) q++;
+                List<String[]> p = queries.get(q).params;
+                queue.add(new Arrival(q, p.isEmpty() ? null : p.get(random.nextInt(p.size())), due));
+                maxQueue = Math.max(maxQueue, queue.size());
+                issued++;
+                due += (long)(poisson ? -Math.log(1 - random.nextDouble()) * gap : gap);
+            }
+            long scheduled = System.nanoTime() - ts;
+            for (int i = 0; i < n; i++) queue.add(END);
+
+            Histogram[] latency = new Histogram[queries.size()], service = new Histogram[queries.size()];
+            long[] errors = new long[queries.size()];
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new Histogram();
+                service[i] = new Histogram();
+            }
+            long rows = 0;
+            SQLException lastError = null;
+            for (Worker w : workers) {
+                w.join();
+                for (int i = 0; i < latency.length; i++) {
+                    latency[i].add(w.latency[i]);
+                    service[i].add(w.service[i]);
+                    errors[i] += w.errors[i];
+                }
+                rows += w.rows;
+                if (w.lastError != null) lastError = w.lastError;
+            }
+            double secs = (System.nanoTime() - ts) / 1e9;
+            Histogram all = new Histogram();
+            long failed = 0;
+            for (int i = 0; i < latency.length; i++) {
+                Query q = queries.get(i);
+                Main.out(String.format("%s (weight %d%s): %d executions, %d errors", q.name, q.weight,
+                        q.think > 0 ? ", think "+Timing.ms(q.think) : "", latency[i].count(), errors[i]));
+                Main.out("  latency " + latency[i].summary());
+                Main.out("  service " + service[i].summary());
+                all.add(latency[i]);
+                failed += errors[i];
+            }
+            Main.out(String.format("%d arrivals in %.3fs (%.1f/s offered), %d executions (%d rows) done in %.3fs; %.1f executions/s, %d errors, max queue %d",
+                    issued, scheduled / 1e9, issued / (scheduled / 1e9), all.count(), rows, secs, all.count() / secs, failed, maxQueue));
+            Main.out("latency " + all.summary());
+            if (lastError != null) Main.out("last error - " + lastError.toString());
+        } finally {
+            for (int i = 1; i < n; i++)
+                if (conns[i] != null) { try { conns[i].close(); } catch(Exception e) {} }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * A batch of rows x cols text cells kept in a single growable char arena with an offset/length
+ * index, in place of a String[][] holding one String per cell until the batch is flushed.  Cells
+ * are appended in order and the arena is reused once the batch has been written out (clear()).
+ */
+public class RowBuffer {
+    final int rows;
+    final int cols;
+    char[] arena;
+    int used = 0;
+    final int[] offset;
+    final int[] length;
+
+    public RowBuffer(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        offset = new int[rows*cols];
+        length = new int[rows*cols];
+        arena = new char[Math.max(1024, rows*cols*8)];
+    }
+
+    public int rows()   { return rows; }
+    public int cols()   { return cols; }
+
+    // store the cell and widen widths[col] (if given) to fit it; a null is stored as an empty cell
+    public void set(int row, int col, String s, int[] widths) {
+        int i = row*cols+col;
+        int n = s == null ? 0 : s.length();
+        if (used + n > arena.length) {
+            char[] a = new char[Math.max(arena.length*2, used+n)];
+            System.arraycopy(arena, 0, a, 0, used);
+            arena = a;
+        }
+        if (n > 0) s.getChars(0, n, arena, used);
+        offset[i] = used;
+        length[i] = n;
+        used += n;
+        if (widths != null && n > widths[col]) widths[col] = n;
+    }
+
+    // store the decimal text of v without going through a String
+    public void setLong(int row, int col, long v, int[] widths) {
+        if (v == Long.MIN_VALUE) { set(row, col, String.valueOf(v), widths); return; }
+        int n = 1;
+        for (long t = Math.abs(v); t >= 10; t /= 10) n++;
+        if (v < 0) n++;
+        if (used + n > arena.length) {
+            char[] a = new char[Math.max(arena.length*2, used+n)];
+            System.arraycopy(arena, 0, a, 0, used);
+            arena = a;
+        }
+        int i = row*cols+col;
+        offset[i] = used;
+        length[i] = n;
+        int p = used + n;
+        long t = Math.abs(v);
+        do {
+            arena[--p] = (char)('0' + t % 10);
+            t /= 10;
+        } while (t > 0);
+        if (v < 0) arena[--p] = '-';
+        used += n;
+        if (widths != null && n > widths[col]) widths[col] = n;
+    }
+
+    public int offset(int row, int col) { return offset[row*cols+col]; }
+    public int length(int row, int col) { return length[row*cols+col]; }
+
+    public String get(int row, int col) {
+        int i = row*cols+col;
+        return new String(arena, offset[i], length[i]);
+    }
+
+    public void clear() { used = 0; }
+}
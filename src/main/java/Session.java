@@ -0,0 +1,192 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The connections and statements behind the repl and exec scripts.  'bind' hands the current connection
+ * back to a small pool of warm connections per source (user and url) and takes one for the new source
+ * from it before connecting again, so switching back and forth between sources only pays the connect
+ * time once.  Pooled connections are checked with isValid before they are handed out.
+ *
+ * Statements holding a '?' are prepared once per connection and kept in an LRU cache keyed by their text
+ * (evicted statements are closed); the values set with the 'params' command are bound to them in order.
+ * Plain statements are closed as soon as their results have been shown.
+ */
+public class Session {
+    static final int IDLE = 2;         // warm connections kept per source
+    static final int STATEMENTS = 64;  // prepared statements cached per connection
+    static final Pattern PARAM = Pattern.compile("'[^']*'|\\S+");
+
+    class Cache extends LinkedHashMap<String,PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+        Cache() { super(16, 0.75f, true); }
+        protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+            if (size() <= STATEMENTS) return false;
+            try { eldest.getValue().close(); } catch(Exception e) {}
+            evictions++;
+            return true;
+        }
+    }
+
+    Connection conn = null;
+    String key = null;
+    String url = null;
+    HashMap<String,ArrayDeque<Connection>> idle = new HashMap<String,ArrayDeque<Connection>>();
+    IdentityHashMap<Connection,String> urls = new IdentityHashMap<Connection,String>();
+    IdentityHashMap<Connection,Cache> caches = new IdentityHashMap<Connection,Cache>();
+    List<String> params = new ArrayList<String>();
+    long connects = 0, reuses = 0, prepares = 0, hits = 0, evictions = 0;
+
+    static String keyOf(OptionParser.ParsedArgs parsed) {
+        String where = parsed.has("source") ? "source "+parsed.val("source") : "db "+parsed.val("db");
+        return where+"|"+(parsed.has("user") ? parsed.val("user") : "")+"|"+(parsed.has("password") ? parsed.val("password") : "");
+    }
+
+    static boolean valid(Connection c) {
+        try {
+            return !c.isClosed() && c.isValid(2);
+        } catch (AbstractMethodError e) {
+            return true;  // pre jdbc 4 driver; find out on first use
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // return the current connection to the pool and take one for the source the options now name
+    public Connection bind(OptionParser.ParsedArgs parsed) throws Exception {
+        release();
+        key = keyOf(parsed);
+        ArrayDeque<Connection> q = idle.get(key);
+        while (q != null && !q.isEmpty()) {
+            Connection c = q.poll();
+            if (valid(c)) {
+                conn = c;
+                url = urls.get(c);
+                parsed.opts.put("db", url);
+                reuses++;
+                if (parsed.is("verbose") || parsed.is("interactive")) Main.out("reusing warm connection to "+url);
+                return conn;
+            }
+            close(c);
+        }
+        conn = Main.getConn();
+        url = parsed.val("db");
+        urls.put(conn, url);
+        connects++;
+        return conn;
+    }
+
+    void release() {
+        if (conn == null) return;
+        ArrayDeque<Connection> q = idle.get(key);
+        if (q == null) idle.put(key, q = new ArrayDeque<Connection>());
+        q.push(conn);
+        while (q.size() > IDLE) close(q.removeLast());
+        conn = null;
+    }
+
+    void close(Connection c) {
+        Cache cache = caches.remove(c);
+        if (cache != null)
+            for (PreparedStatement ps : cache.values()) { try { ps.close(); } catch(Exception e) {} }
+        urls.remove(c);
+        try { c.close(); } catch(Exception e) {}
+    }
+
+    public void close() {
+        release();
+        for (ArrayDeque<Connection> q : idle.values())
+            for (Connection c : q) close(c);
+        idle.clear();
+    }
+
+    // true when sql has a '?' outside of quotes
+    static boolean hasParams(String sql) {
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') quoted = !quoted;
+            else if (c == '?' && !quoted) return true;
+        }
+        return false;
+    }
+
+    // the statement to run sql with: a cached prepared statement with the params bound, or a new plain one
+    public Statement statement(String sql, OptionParser.ParsedArgs parsed) throws SQLException {
+        if (!hasParams(sql)) return Main.statement(conn, parsed);
+        Cache cache = caches.get(conn);
+        if (cache == null) caches.put(conn, cache = new Cache());
+        PreparedStatement ps = cache.get(sql);
+        if (ps == null) {
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            cache.put(sql, ps);
+            prepares++;
+        } else {
+            hits++;
+            ps.setFetchSize(0);  // back to the driver default before the current options are applied
+        }
+        Main.fetchOptions(conn, ps, parsed);
+        try {
+            ps.clearParameters();
+            for (int i = 0; i < params.size(); i++) bind(ps, i+1, params.get(i));
+        } catch (SQLException e) {
+            Main.streamDone(conn, false);  // executeSQL will not get to it
+            throw e;
+        }
+        return ps;
+    }
+
+    // cached statements stay open for the next use; plain ones are done
+    public void done(Statement stmt) {
+        if (stmt instanceof PreparedStatement) return;
+        try { stmt.close(); } catch(Exception e) {}
+    }
+
+    // a parameter is bound as a number when it looks like one; 'quoted' values (which may hold spaces) are strings
+    static void bind(PreparedStatement ps, int i, String v) throws SQLException {
+        if (v.equalsIgnoreCase("null")) {
+            ps.setNull(i, Types.VARCHAR);
+        } else if (v.length() > 1 && v.startsWith("'") && v.endsWith("'")) {
+            ps.setString(i, v.substring(1, v.length()-1));
+        } else if (v.matches("-?\\d{1,18}")) {
+            ps.setLong(i, Long.parseLong(v));
+        } else if (v.matches("-?\\d*\\.\\d+|-?\\d+(\\.\\d*)?[eE][-+]?\\d+")) {
+            ps.setBigDecimal(i, new BigDecimal(v));
+        } else {
+            ps.setString(i, v);
+        }
+    }
+
+    public void params(String[] cmd) {
+        if (cmd.length > 1) {
+            params.clear();
+            if (!cmd[1].equals(";")) {  // ; => no parameters
+                Matcher m = PARAM.matcher(Main.join(" ", Arrays.asList(cmd).subList(1, cmd.length)));
+                while (m.find()) params.add(m.group());
+            }
+        }
+        Main.out("params are " + (params.isEmpty() ? "(none)" : Main.join(" ", params)));
+    }
+
+    public String stats() {
+        int pooled = 0, cached = 0;
+        for (ArrayDeque<Connection> q : idle.values()) pooled += q.size();
+        for (Cache c : caches.values()) cached += c.size();
+        return String.format("session connects=%d reuses=%d idle=%d prepared=%d cached=%d hits=%d evictions=%d",
+                connects, reuses, pooled, prepares, cached, hits, evictions);
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Startup benchmark: runs a jdbcq command line (bin/jdbcq, java -jar ..., or the daemon Client) a number
+ * of times and reports the time from the start of the process to the first byte of output and to its
+ * exit.  When the command runs with -t (or -t -J) the connect time of its timing record is reported too.
+ * Two unmeasured runs warm the file cache first.
+ *
+ *   $ java -cp jdbcq-all.jar Startup 20 bin/jdbcq -s emp -q "select 1" -t
+ */
+public class Startup {
+    static final int WARMUP = 2;
+    static final Pattern CONNECT = Pattern.compile("connect=([0-9.]+)ms|\"connect_ns\":([0-9]+)");
+
+    // copies the output of the child away, noting when its first byte arrives and keeping the tail of it
+    static class Watch extends Thread {
+        InputStream in;
+        long start;
+        volatile long first = -1;
+        StringBuilder tail = new StringBuilder();
+        Watch(InputStream in, long start) { this.in = in; this.start = start; setDaemon(true); }
+
+        // the connect time (ms) of the last timing record seen, or -1
+        double connect() {
+            Matcher m = CONNECT.matcher(tail);
+            double ms = -1;
+            while (m.find()) ms = m.group(1) != null ? Double.parseDouble(m.group(1)) : Long.parseLong(m.group(2)) / 1e6;
+            return ms > 0 ? ms : -1;
+        }
+
+        public void run() {
+            byte[] b = new byte[8192];
+            try {
+                int n;
+                while ((n = in.read(b)) > 0) {
+                    long now = System.nanoTime() - start;
+                    if (first < 0) first = now;
+                    tail.append(new String(b, 0, n, "ISO-8859-1"));
+                    if (tail.length() > 8192) tail.delete(0, tail.length() - 4096);
+                }
+            } catch (IOException e) {}
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: Startup runs command [args...]");
+            System.exit(1);
+        }
+        int runs = Integer.parseInt(args[0]);
+        List<String> cmd = new ArrayList<String>(Arrays.asList(args).subList(1, args.length));
+        Stats connect = new Stats(), firstOutput = new Stats(), exit = new Stats();
+        int failed = 0;
+        for (int i = 0; i < WARMUP + runs; i++) {
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            long start = System.nanoTime();
+            Process p = pb.start();
+            p.getOutputStream().close();
+            Watch out = new Watch(p.getInputStream(), start), err = new Watch(p.getErrorStream(), start);
+            out.start();
+            err.start();
+            int rc = p.waitFor();
+            long done = System.nanoTime() - start;
+            out.join();
+            err.join();
+            if (i < WARMUP) continue;
+            if (rc != 0) failed++;
+            if (out.connect() >= 0) connect.add(out.connect());
+            if (out.first >= 0) firstOutput.add(out.first / 1e6);
+            exit.add(done / 1e6);
+        }
+        System.out.println("startup of: " + Main.join(" ", cmd));
+        System.out.println("connect      " + (connect.count() > 0 ? connect + " ms" : "no connect time seen (run the command with -t)"));
+        System.out.println("first-output " + (firstOutput.count() > 0 ? firstOutput + " ms" : "no output"));
+        System.out.println("exit         " + exit + " ms");
+        System.out.println("(mean +-95% confidence interval over " + runs + " runs after " + WARMUP + " warmup" + (failed > 0 ? "; " + failed + " runs failed" : "") + ")");
+    }
+}
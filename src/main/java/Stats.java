@@ -0,0 +1,33 @@
+/**
+ * Running sample statistics (Welford) with a student-t based confidence interval for the mean.
+ */
+public class Stats {
+    // two-sided 95% critical values of the t distribution for 1..30 degrees of freedom
+    static final double[] T95 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+                                 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+                                 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+
+    long n = 0;
+    double mean = 0;
+    double m2 = 0;
+
+    public void add(double x) {
+        n++;
+        double d = x - mean;
+        mean += d / n;
+        m2 += d * (x - mean);
+    }
+
+    public long count()     { return n; }
+    public double mean()    { return mean; }
+    public double stddev()  { return n < 2 ? 0 : Math.sqrt(m2 / (n - 1)); }
+
+    // half width of the 95% confidence interval of the mean
+    public double ci95() {
+        if (n < 2) return 0;
+        double t = n - 1 <= T95.length ? T95[(int)(n - 2)] : 1.960;
+        return t * stddev() / Math.sqrt(n);
+    }
+
+    public String toString() { return String.format("%.3f +-%.3f", mean(), ci95()); }
+}
@@ -0,0 +1,95 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Runs the same query once per fetch size and reports throughput, time to first row and the peak
+ * client heap seen while fetching, so the right Statement.setFetchSize() can be picked for a
+ * driver/query without trial and error.
+ */
+public class Sweep {
+
+    static class Result {
+        int fetchSize;
+        long rows = 0;
+        long peakHeap = 0;
+        Stats firstRow = new Stats();
+        Stats rowsPerSec = new Stats();
+    }
+
+    static void iteration(Connection conn, String sql, Result r, boolean measure) throws Exception {
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        boolean ok = false;
+        try {
+            Main.streamTransaction(conn);  // postgres ignores the fetch size in autocommit mode
+            stmt.setFetchSize(r.fetchSize);
+            System.gc();
+            Main.resetPeakHeap();
+            long ts = System.nanoTime();
+            long first = 0;
+            long rows = 0;
+            if (stmt.execute(sql)) {
+                ResultSet rs = stmt.getResultSet();
+                int cols = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    if (rows == 0) first = System.nanoTime() - ts;
+                    for (int c = 1; c <= cols; c++)
+                        rs.getString(c);
+                    rows++;
+                }
+                rs.close();
+            }
+            long elapsed = System.nanoTime() - ts;
+            if (measure) {
+                r.rows = rows;
+                r.firstRow.add(first / 1e6);
+                r.rowsPerSec.add(rows / (elapsed / 1e9));
+                r.peakHeap = Math.max(r.peakHeap, Main.peakHeap());
+            }
+            ok = true;
+        } finally {
+            try { stmt.close(); } catch(Exception e) {}
+            Main.streamDone(conn, ok);
+        }
+    }
+
+    public static void run(Connection conn, String sql, OptionParser.ParsedArgs parsed) throws Exception {
+        String[] l = parsed.val("sweep").split(",");
+        int[] sizes = new int[l.length];
+        for (int i = 0; i < l.length; i++) {
+            try { sizes[i] = Integer.parseInt(l[i].trim()); }
+            catch (NumberFormatException e) { Main.err("Not a proper fetch size '"+l[i]+"' in argument '"+parsed.val("sweep")+"'"); }
+        }
+        int warmup = parsed.valInt("warmup");
+        int iterations = parsed.has("iterations") ? parsed.valInt("iterations") : 3;
+        Result[] results = new Result[sizes.length];
+
+        for (int s = 0; s < sizes.length; s++) {
+            Result r = results[s] = new Result();
+            r.fetchSize = sizes[s];
+            if (parsed.is("verbose")) Main.out("fetch size "+r.fetchSize+"; "+warmup+" warmup and "+iterations+" measured iterations");
+            for (int i = 0; i < warmup; i++)
+                iteration(conn, sql, r, false);
+            for (int i = 0; i < iterations; i++)
+                iteration(conn, sql, r, true);
+        }
+
+        String[] titles = {"fetch size", "rows", "first-row ms", "rows/s", "peak heap MB"};
+        int cols = titles.length;
+        RowBuffer eles = new RowBuffer(sizes.length+1, cols);
+        int[][] limits = Main.int2DArray(0, 2, cols);
+        limits[1] = Main.intArray(Integer.parseInt(parsed.val("limit")), cols);
+        for (int i = 0; i < cols; i++)
+            Main.capture(limits, eles, 0, i, titles[i]);
+        for (int s = 0; s < results.length; s++) {
+            Result r = results[s];
+            Main.capture(limits, eles, s+1, 0, r.fetchSize);
+            Main.capture(limits, eles, s+1, 1, r.rows);
+            Main.capture(limits, eles, s+1, 2, r.firstRow);
+            Main.capture(limits, eles, s+1, 3, String.format("%.0f +-%.0f", r.rowsPerSec.mean(), r.rowsPerSec.ci95()));
+            Main.capture(limits, eles, s+1, 4, String.format("%.1f", r.peakHeap / (1024.0*1024.0)));
+        }
+        Main.flush(limits, eles, results.length+1, !parsed.is("dont-align"), !parsed.is("right-align"), parsed.is("leave-whitespace"), parsed.val("field-separator"));
+        Main.out("(mean +-95% confidence interval over "+iterations+" iterations after "+warmup+" warmup; peak heap is the max seen)");
+    }
+}
@@ -0,0 +1,134 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per statement timing record (nanoseconds) filled in as the statement moves through the phases of
+ * getConn/executeSQL/streamResultMem/flush, and emitted as a single line (or JSON object) by -t.
+ *
+ *   connect   - obtaining the connection (only on the statement that follows a connect)
+ *   create    - creating the Statement
+ *   metadata  - DatabaseMetaData calls for metadata requests
+ *   execute   - Statement.execute()
+ *   first-row - from the start of execute until the first row was returned by next()
+ *   fetch     - driver time spent in next() and the column getters
+ *   render    - formatting buffered rows into text
+ *   output    - writing the text out
+ *
+ * With --stream the peak heap used while the statement ran is recorded too, and with --pipeline
+ * the time the fetching thread waited for a free batch (producer-stall, rendering is the bottleneck)
+ * and the rendering thread waited for a full one (consumer-stall, fetching is the bottleneck).
+ *
+ * With -t the client side cost of a query is sampled between begin() and end() as well: the bytes the
+ * statement's threads allocated (in total and for the execute, fetch and render phases where those are
+ * measured apart), their cpu time against the wall time, the collections (count and time, all of the
+ * jvm) and the peak heap.  Drivers of the same latency can differ a lot in the garbage they leave.
+ */
+public class Timing {
+    long start = 0;
+    long connect = 0;
+    long create = 0;
+    long metadata = 0;
+    long execute = 0;
+    long firstRow = 0;
+    long fetch = 0;
+    long render = 0;
+    long output = 0;
+    long rows = 0;
+    long peakHeap = 0;
+    long producerStall = -1;
+    long consumerStall = -1;
+    long alloc = 0;           // all phases, -1 when the jvm cannot count allocations per thread
+    long executeAlloc = 0;
+    long fetchAlloc = 0;
+    long renderAlloc = 0;     // rendering and output
+    long cpu = 0;
+    long wall = 0;
+    long gcCount = 0;
+    long gcTime = 0;
+    boolean sampling = false;
+    long alloc0, cpu0, wall0, gcCount0, gcTime0;
+
+    static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    static final List<GarbageCollectorMXBean> GCS = ManagementFactory.getGarbageCollectorMXBeans();
+    static final boolean ALLOC = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+    static final boolean CPU = THREADS.isCurrentThreadCpuTimeSupported();
+
+    // bytes allocated by the calling thread so far; 0 when the jvm does not count them
+    static long threadAllocated() {
+        return ALLOC ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    static long threadCpu() { return CPU ? THREADS.getCurrentThreadCpuTime() : 0; }
+
+    // threadAllocated() while the statement is sampled, so phase deltas cost nothing otherwise
+    long allocated() { return sampling ? threadAllocated() : 0; }
+
+    public void begin(boolean sample) {
+        sampling = sample;
+        if (!sample) return;
+        Main.resetPeakHeap();
+        for (GarbageCollectorMXBean gc : GCS) {
+            gcCount0 += Math.max(0, gc.getCollectionCount());
+            gcTime0 += Math.max(0, gc.getCollectionTime());
+        }
+        cpu0 = threadCpu();
+        alloc0 = threadAllocated();
+        wall0 = System.nanoTime();
+    }
+
+    // other threads of the statement (the --pipeline fetch thread) add their share of alloc and cpu before end()
+    public void end() {
+        if (!sampling) return;
+        wall = System.nanoTime() - wall0;
+        alloc = ALLOC ? alloc + threadAllocated() - alloc0 : -1;
+        cpu = CPU ? cpu + threadCpu() - cpu0 : -1;
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : GCS) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        gcCount = count - gcCount0;
+        gcTime = (time - gcTime0) * 1000000;  // the beans count milliseconds
+        peakHeap = Math.max(peakHeap, Main.peakHeap());
+        sampling = false;
+    }
+
+    static String mb(long bytes) { return String.format(Locale.ROOT, "%.1fMB", bytes / (1024.0*1024.0)); }
+
+    static String ms(long ns) { return String.format(Locale.ROOT, "%.3fms", ns / 1e6); }
+
+    public String line() {
+        StringBuilder sb = new StringBuilder("timing rows=").append(rows);
+        if (connect > 0)  sb.append(" connect=").append(ms(connect));
+        if (metadata > 0) sb.append(" metadata=").append(ms(metadata));
+        else              sb.append(" create=").append(ms(create)).append(" execute=").append(ms(execute));
+        sb.append(" first-row=").append(ms(firstRow));
+        sb.append(" fetch=").append(ms(fetch));
+        sb.append(" render=").append(ms(render));
+        sb.append(" output=").append(ms(output));
+        if (producerStall >= 0) sb.append(" producer-stall=").append(ms(producerStall)).append(" consumer-stall=").append(ms(consumerStall));
+        if (wall > 0) {
+            if (alloc >= 0) sb.append(" alloc=").append(mb(alloc)).append(" execute-alloc=").append(mb(executeAlloc))
+                              .append(" fetch-alloc=").append(mb(fetchAlloc)).append(" render-alloc=").append(mb(renderAlloc));
+            if (cpu >= 0) sb.append(" cpu=").append(ms(cpu));
+            sb.append(" wall=").append(ms(wall)).append(" gc-count=").append(gcCount).append(" gc-time=").append(ms(gcTime));
+        }
+        if (peakHeap > 0) sb.append(" peak-heap=").append(mb(peakHeap));
+        return sb.toString();
+    }
+
+    public String json(String sql) {
+        return String.format(Locale.ROOT, "{\"sql\":%s,\"rows\":%d,\"connect_ns\":%d,\"create_ns\":%d,\"metadata_ns\":%d,\"execute_ns\":%d," +
+                             "\"first_row_ns\":%d,\"fetch_ns\":%d,\"render_ns\":%d,\"output_ns\":%d,\"peak_heap\":%d%s%s}",
+                Main.jsonStr(sql), rows, connect, create, metadata, execute, firstRow, fetch, render, output, peakHeap,
+                wall == 0 ? "" : String.format(Locale.ROOT, ",\"alloc_bytes\":%d,\"execute_alloc_bytes\":%d,\"fetch_alloc_bytes\":%d,\"render_alloc_bytes\":%d," +
+                                               "\"cpu_ns\":%d,\"wall_ns\":%d,\"gc_count\":%d,\"gc_ns\":%d",
+                                               alloc, executeAlloc, fetchAlloc, renderAlloc, cpu, wall, gcCount, gcTime),
+                producerStall < 0 ? "" : String.format(Locale.ROOT, ",\"producer_stall_ns\":%d,\"consumer_stall_ns\":%d", producerStall, consumerStall));
+    }
+}
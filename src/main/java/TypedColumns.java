@@ -0,0 +1,154 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Typed column extraction for --typed.  The column types are inspected once and each column is then
+ * read with the getter matching its type (getLong, getInt, getDouble, getBigDecimal, getTimestamp,
+ * getBytes, ...) into a per column buffer, primitive where possible, instead of going through
+ * getString.  The time spent in each getter is accumulated per getter kind so the driver's decode
+ * cost per type can be reported; converting the values to text happens separately in render().
+ */
+public class TypedColumns {
+    static final int LONG = 0, INT = 1, DOUBLE = 2, DECIMAL = 3, DATE = 4, TIME = 5, TIMESTAMP = 6, BOOLEAN = 7, BYTES = 8, STRING = 9, BLOB = 10;
+    static final String[] NAMES = {"getLong", "getInt", "getDouble", "getBigDecimal", "getDate", "getTime", "getTimestamp", "getBoolean", "getBytes", "getString", "getBlob"};
+
+    int[] col;
+    int[] kind;
+    long[][] longs;
+    int[][] ints;
+    double[][] doubles;
+    boolean[][] bools;
+    Object[][] objects;
+    boolean[][] nulls;
+    boolean blobBytes = false;  // read BLOBs as their bytes rather than a description
+    long[] decodeNs = new long[NAMES.length];
+    long[] decoded = new long[NAMES.length];
+
+    public TypedColumns(ResultSetMetaData md, int[] col, int rows) throws SQLException {
+        this.col = col;
+        int n = col.length;
+        kind = new int[n];
+        longs = new long[n][];
+        ints = new int[n][];
+        doubles = new double[n][];
+        bools = new boolean[n][];
+        objects = new Object[n][];
+        nulls = new boolean[n][rows];
+        for (int i = 0; i < n; i++) {
+            kind[i] = kindOf(md.getColumnType(col[i]));
+            switch (kind[i]) {
+                case LONG:    longs[i] = new long[rows]; break;
+                case INT:     ints[i] = new int[rows]; break;
+                case DOUBLE:  doubles[i] = new double[rows]; break;
+                case BOOLEAN: bools[i] = new boolean[rows]; break;
+                default:      objects[i] = new Object[rows];
+            }
+        }
+    }
+
+    static int kindOf(int type) {
+        switch (type) {
+            case Types.BIGINT:          return LONG;
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:         return INT;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:          return DOUBLE;
+            case Types.DECIMAL:
+            case Types.NUMERIC:         return DECIMAL;
+            case Types.DATE:            return DATE;
+            case Types.TIME:            return TIME;
+            case Types.TIMESTAMP:       return TIMESTAMP;
+            case Types.BIT:
+            case Types.BOOLEAN:         return BOOLEAN;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:   return BYTES;
+            case Types.BLOB:            return BLOB;
+            default:                    return STRING;
+        }
+    }
+
+    // read the current row of rs into slot 'row' of the column buffers
+    public void read(ResultSet rs, int row) throws SQLException {
+        for (int i = 0; i < col.length; i++) {
+            int c = col[i];
+            int k = kind[i];
+            long ts = System.nanoTime();
+            switch (k) {
+                case LONG:      longs[i][row] = rs.getLong(c); break;
+                case INT:       ints[i][row] = rs.getInt(c); break;
+                case DOUBLE:    doubles[i][row] = rs.getDouble(c); break;
+                case BOOLEAN:   bools[i][row] = rs.getBoolean(c); break;
+                case DECIMAL:   objects[i][row] = rs.getBigDecimal(c); break;
+                case DATE:      objects[i][row] = rs.getDate(c); break;
+                case TIME:      objects[i][row] = rs.getTime(c); break;
+                case TIMESTAMP: objects[i][row] = rs.getTimestamp(c); break;
+                case BYTES:     objects[i][row] = rs.getBytes(c); break;
+                case BLOB:      objects[i][row] = blobBytes ? rs.getBytes(c) : Main.blobstr(rs, c); break;
+                default:        objects[i][row] = rs.getString(c);
+            }
+            nulls[i][row] = rs.wasNull();
+            decodeNs[k] += System.nanoTime() - ts;
+            decoded[k]++;
+        }
+    }
+
+    public Object value(int i, int row) {
+        if (nulls[i][row]) return null;
+        switch (kind[i]) {
+            case LONG:    return longs[i][row];
+            case INT:     return ints[i][row];
+            case DOUBLE:  return doubles[i][row];
+            case BOOLEAN: return bools[i][row];
+            default:      return objects[i][row];
+        }
+    }
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String hex(byte[] b) {
+        char[] c = new char[b.length*2];
+        for (int i = 0; i < b.length; i++) {
+            c[i*2] = HEX[(b[i] >> 4) & 0xf];
+            c[i*2+1] = HEX[b[i] & 0xf];
+        }
+        return new String(c);
+    }
+
+    // turn rows [from,to) of the column buffers into text cells
+    public void render(RowBuffer eles, int from, int to, int[][] limits, boolean[] applytx) {
+        for (int row = from; row < to; row++) {
+            for (int i = 0; i < col.length; i++) {
+                if (!applytx[i] && !nulls[i][row] && (kind[i] == LONG || kind[i] == INT)) {
+                    eles.setLong(row, i, kind[i] == LONG ? longs[i][row] : ints[i][row], limits == null ? null : limits[0]);
+                    continue;
+                }
+                Object v = value(i, row);
+                String s = v == null ? null : v instanceof byte[] ? hex((byte[])v) : v.toString();
+                Main.capture(limits, eles, row, i, applytx[i] ? Main.transform(s) : s);
+            }
+        }
+    }
+
+    // fold the decode times of another buffer over the same columns into this one
+    public void add(TypedColumns t) {
+        for (int k = 0; k < NAMES.length; k++) {
+            decodeNs[k] += t.decodeNs[k];
+            decoded[k] += t.decoded[k];
+        }
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < NAMES.length; k++) {
+            if (decoded[k] == 0) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format("decode %-13s values=%d time=%.3fms %.1fns/value", NAMES[k], decoded[k], decodeNs[k] / 1e6, (double)decodeNs[k] / decoded[k]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The hand written encoder of --format arrow against the Arrow Java reader: a small result with nulls,
+ * decimals, timestamps and strings is written over several record batches and read back, and the file
+ * framing (magic, schema message, footer) is checked byte by byte as well.
+ */
+public class ArrowTest {
+    static final String URL = "jdbc:h2:mem:arrow;DB_CLOSE_DELAY=-1";
+
+    Connection conn;
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection(URL, "sa", "");
+        Statement s = conn.createStatement();
+        s.execute("CREATE TABLE T (ID BIGINT PRIMARY KEY, NAME VARCHAR(40), AMOUNT DECIMAL(10,2), TS TIMESTAMP)");
+        s.execute("INSERT INTO T VALUES (1, 'one', 10.50, TIMESTAMP '2020-01-02 03:04:05.123456')");
+        s.execute("INSERT INTO T VALUES (2, NULL, -0.01, NULL)");
+        s.execute("INSERT INTO T VALUES (3, 'drei \u00fc', NULL, TIMESTAMP '1969-12-31 23:59:59')");
+        s.execute("INSERT INTO T VALUES (4, '', 99999999.99, TIMESTAMP '2038-01-19 03:14:08')");
+        s.execute("INSERT INTO T VALUES (5, NULL, NULL, NULL)");
+        s.close();
+        file = File.createTempFile("jdbcq", ".arrow");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.createStatement().execute("DROP ALL OBJECTS");
+        conn.close();
+        file.delete();
+    }
+
+    void write() throws Exception {
+        assertEquals(0, Main.run(new String[]{"-j", "org.h2.Driver", "-d", URL, "-u", "sa", "-p", "",
+                "-e", "arrow", "-b", "2", "-o", file.getPath(), "-q", "SELECT * FROM T ORDER BY ID"}));
+    }
+
+    static int le(byte[] b, int at) {
+        return ByteBuffer.wrap(b, at, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    @Test
+    public void framing() throws Exception {
+        write();
+        byte[] b = Files.readAllBytes(file.toPath());
+        byte[] magic = "ARROW1".getBytes("US-ASCII");
+        assertArrayEquals(magic, Arrays.copyOfRange(b, 0, 6));
+        assertArrayEquals(magic, Arrays.copyOfRange(b, b.length - 6, b.length));
+
+        // the schema message: continuation marker, then metadata padded to 8 bytes
+        assertEquals(-1, le(b, 8));
+        int schema = le(b, 12);
+        assertTrue(schema > 0 && schema % 8 == 0 && 16 + schema < b.length);
+
+        // the footer sits right before its length and the trailing magic, after the end of stream marker
+        int footer = le(b, b.length - 10);
+        int at = b.length - 10 - footer;
+        assertTrue(footer > 0 && at > 16 + schema);
+        assertEquals(-1, le(b, at - 8));
+        assertEquals(0, le(b, at - 4));
+    }
+
+    @Test
+    public void readBack() throws Exception {
+        write();
+        BufferAllocator allocator = new RootAllocator();
+        FileInputStream in = new FileInputStream(file);
+        ArrowFileReader reader = new ArrowFileReader(in.getChannel(), allocator);
+        try {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            List<Field> fields = root.getSchema().getFields();
+            assertEquals(4, fields.size());
+            assertEquals(new ArrowType.Int(64, true), fields.get(0).getType());
+            assertEquals(new ArrowType.Utf8(), fields.get(1).getType());
+            assertEquals(new ArrowType.Decimal(10, 2, 128), fields.get(2).getType());
+            assertEquals(ArrowType.ArrowTypeID.Timestamp, fields.get(3).getType().getTypeID());
+
+            String[] names = {"one", null, "drei \u00fc", "", null};
+            String[] amounts = {"10.50", "-0.01", null, "99999999.99", null};
+            String[] stamps = {"2020-01-02T03:04:05.123456", null, "1969-12-31T23:59:59", "2038-01-19T03:14:08", null};
+            List<ArrowBlock> blocks = reader.getRecordBlocks();
+            assertEquals(3, blocks.size());  // -b 2
+            int row = 0;
+            for (ArrowBlock block : blocks) {
+                assertTrue(reader.loadRecordBatch(block));
+                List<FieldVector> v = root.getFieldVectors();
+                for (int i = 0; i < root.getRowCount(); i++, row++) {
+                    assertEquals(row + 1L, v.get(0).getObject(i));
+                    assertEquals(names[row], v.get(1).isNull(i) ? null : v.get(1).getObject(i).toString());
+                    BigDecimal amount = ((DecimalVector) v.get(2)).getObject(i);
+                    assertEquals(amounts[row], amount == null ? null : amount.toPlainString());
+                    assertEquals(stamps[row], v.get(3).isNull(i) ? null : v.get(3).getObject(i).toString());
+                }
+            }
+            assertEquals(5, row);
+            assertFalse(reader.loadNextBatch());
+        } finally {
+            reader.close();
+            in.close();
+            allocator.close();
+        }
+    }
+}
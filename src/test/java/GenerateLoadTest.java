@@ -0,0 +1,114 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trip of the generate and load commands against an in-memory H2 database: generate rows into
+ * one table, write them out as field separated text and load that into a second table, which must
+ * then hold the same rows.  Both commands run over two writer connections.
+ */
+public class GenerateLoadTest {
+    static final String URL = "jdbc:h2:mem:jdbcq;DB_CLOSE_DELAY=-1";
+    static final String COLUMNS = "(ID INT PRIMARY KEY, NAME VARCHAR(40), AMOUNT DECIMAL(10,2), DAY DATE, TS TIMESTAMP, FLAG BOOLEAN)";
+
+    Connection conn;
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection(URL, "sa", "");
+        Statement s = conn.createStatement();
+        s.execute("CREATE TABLE SRC " + COLUMNS);
+        s.execute("CREATE TABLE DST " + COLUMNS);
+        s.close();
+        file = File.createTempFile("jdbcq", ".txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.createStatement().execute("DROP ALL OBJECTS");
+        conn.close();
+        file.delete();
+    }
+
+    // run the commands in the repl of one jdbcq invocation and return what it printed
+    static String repl(String... commands) throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (String c : commands) script.append(c).append('\n');
+        script.append("quit\n");
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        System.setIn(new ByteArrayInputStream(script.toString().getBytes("UTF-8")));
+        System.setOut(new PrintStream(buf, true, "UTF-8"));
+        try {
+            assertEquals(0, Main.run(new String[]{"-j", "org.h2.Driver", "-d", URL, "-u", "sa", "-p", "", "-i"}));
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return buf.toString("UTF-8");
+    }
+
+    long count(String sql) throws Exception {
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    // the rows of tbl in the format load reads: a header line, tab separated fields, empty for null
+    void dump(String tbl) throws Exception {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM " + tbl);
+        ResultSetMetaData md = rs.getMetaData();
+        for (int i = 1; i <= md.getColumnCount(); i++) w.write((i > 1 ? "\t" : "") + md.getColumnName(i));
+        w.write('\n');
+        while (rs.next()) {
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                String v = rs.getString(i);
+                w.write((i > 1 ? "\t" : "") + (v == null ? "" : v));
+            }
+            w.write('\n');
+        }
+        w.close();
+    }
+
+    @Test
+    public void generateThenLoad() throws Exception {
+        String out = repl("generate SRC 1000 2", "count SRC");
+        assertTrue(out, out.contains("1000"));
+        assertEquals(1000, count("SELECT COUNT(*) FROM SRC"));
+        assertEquals(1000, count("SELECT COUNT(DISTINCT ID) FROM SRC"));
+
+        dump("SRC");
+        repl("load DST " + file.getPath() + " 2");
+        assertEquals(1000, count("SELECT COUNT(*) FROM DST"));
+        assertEquals(0, count("SELECT COUNT(*) FROM (SELECT * FROM SRC EXCEPT SELECT * FROM DST)"));
+    }
+
+    @Test
+    public void sameSeedSameRows() throws Exception {
+        repl("generate SRC 500 1");
+        conn.createStatement().execute("INSERT INTO DST SELECT * FROM SRC");
+        conn.createStatement().execute("DELETE FROM SRC");
+        repl("generate SRC 500 3");  // more writers, same rows
+        assertEquals(0, count("SELECT COUNT(*) FROM (SELECT * FROM SRC EXCEPT SELECT * FROM DST)"));
+    }
+}